@@ -21,133 +21,319 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.*;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Debugging class used to scan a directory and evaulate id3 tags.
+ *
+ * By default files are parsed one at a time as they are found. Set the
+ * threads property (or use the two argument constructor) to parse up to that
+ * many files at once, each on its own virtual thread when the VM has them and
+ * on a pool of that many threads otherwise. Slow storage (NFS, FUSE) can then
+ * have lots of reads in flight.
+ *
+ * Directories are listed by a fork/join pool (the walkers property, one
+ * walker by default), each subdirectory being its own task. Idle walkers
+ * steal subdirectories from busy ones, so a directory with thousands of
+ * files doesn't hold up the rest of the tree. Without a parsing concurrency
+ * the walkers parse the files they find themselves.
+ *
+ * With the state property set, what was found in each file is saved there
+ * and files whose size and modification time haven't changed since are not
+ * parsed again on the next run.
  */
 public class FsScanner
 {
     private static File DEST_DIR = System.getProperty("dest") == null ? null : new File(System.getProperty("dest"));
-    private static long dumpCount = 0;
-    private static long dumpTime = 0;
+    private static AtomicLong dumpCount = new AtomicLong();
+    private static AtomicLong dumpTime = new AtomicLong();
 
     private File f;
     private Reader r = new Reader();
+    private int concurrency = 0;
+    private int walkers = 1;
+    private ExecutorService executor = null;
+    private Semaphore inFlight = null;
 
-    private int noTag = 0;
-    private int badVersion = 0;
-    private int otherErr = 0;
-    private int ok = 0;
+    private AtomicInteger noTag = new AtomicInteger();
+    private AtomicInteger badVersion = new AtomicInteger();
+    private AtomicInteger corrupt = new AtomicInteger();
+    private AtomicInteger otherErr = new AtomicInteger();
+    private AtomicInteger ok = new AtomicInteger();
+    private AtomicInteger unchanged = new AtomicInteger();
+    private ScanState state = null;
 
     public FsScanner(File f)
+    {
+        this(f,0);
+    }
+
+    /**
+     * @param f File file or directory to scan.
+     * @param concurrency int most files parsed at once. 0 parses them one at a
+     * time as they are found.
+     */
+    public FsScanner(File f, int concurrency)
+    {
+        this(f,concurrency,1);
+    }
+
+    /**
+     * @param f File file or directory to scan.
+     * @param concurrency int most files parsed at once. 0 parses them on the
+     * walker threads.
+     * @param walkers int threads listing directories.
+     */
+    public FsScanner(File f, int concurrency, int walkers)
     {
         this.f = f;
+        this.concurrency = concurrency;
+        this.walkers = Math.max(1,walkers);
     }
 
+    /**
+     * skip files that haven't changed since the scan that made this state,
+     * and record what is found in the rest. Unchanged files count toward the
+     * totals with the result they had before. Ignored when dumping.
+     * @param state ScanState
+     */
+    public void setScanState(ScanState state) { this.state = state; }
+
     public void scan()
     {
+        if (concurrency > 0)
+        {
+            executor = newExecutor(concurrency);
+            inFlight = new Semaphore(concurrency);
+        }
+        ForkJoinPool pool = new ForkJoinPool(walkers);
         try
         {
-            scan(f);
+            if (f.isDirectory())
+                pool.invoke(new Walk(f.toPath()));
+            else
+                scan(f);
+            if (executor != null)
+            {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+            }
             if (DEST_DIR != null)
             {
                 System.out.println("dumped " + dumpCount + " in " + dumpTime);
             }
         }
-        catch (IOException ex)
+        catch (InterruptedException ex)
         {
-            ex.printStackTrace();
+            if (executor != null)
+                executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            pool.shutdown();
         }
-        System.out.println("ok="+ok+" noTag="+noTag+" badVersion="+badVersion+" other="+otherErr);
+        System.out.println("ok="+ok+" noTag="+noTag+" badVersion="+badVersion+" corrupt="+corrupt+" other="+otherErr+" unchanged="+unchanged);
     }
 
-    private void scan(File f)
-        throws IOException
+    // a virtual thread per task if this VM has them, otherwise a fixed pool.
+    private static ExecutorService newExecutor(int concurrency)
     {
-        if (f.isDirectory())
+        try
         {
-            File[] list = f.listFiles();
-            for (int i = 0; i < list.length; i++)
-            {
-                if (list[i].isDirectory())
-                    scan(list[i]);
-                else if (list[i].getName().toLowerCase().endsWith(".mp3") && !list[i].getName().startsWith("."))
-                    scan(list[i]);
-            }
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
         }
-        else
+        catch (Exception ex)
+        {
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    // lists one directory. Subdirectories are forked so idle walkers can
+    // steal them; files are scanned as they come out of the listing.
+    private class Walk
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Path dir;
+
+        private Walk(Path dir)
+        {
+            this.dir = dir;
+        }
+
+        protected void compute()
         {
-            FileInputStream in = null;
+            List<Walk> subdirs = new ArrayList<Walk>();
+            DirectoryStream<Path> list = null;
             try
             {
-                in = new FileInputStream(f);
-                Tag id3 = null;
-                try
-                {
-                    r.read(in);
-                    System.out.println("OK : " + f.getAbsolutePath());
-                }
-                catch (CorruptTagException ex)
-                {
-                    System.err.println("CORRUPT: " + f.getAbsolutePath());
-                    System.err.println("         " + ex.getMessage());
-                    return;
-                }
-                catch (InvalidVersionException ex)
-                {
-                    System.err.println("BAD_VERSION: " + f.getAbsolutePath());
-                    return;
-                }
-                catch (NotATagException ex)
+                list = Files.newDirectoryStream(dir);
+                Iterator<Path> it = list.iterator();
+                while (it.hasNext())
                 {
-                    System.err.println("NO_TAG: " + f.getAbsolutePath());
-                    return;
+                    Path p = it.next();
+                    String name = p.getFileName().toString();
+                    if (Files.isDirectory(p))
+                    {
+                        Walk w = new Walk(p);
+                        w.fork();
+                        subdirs.add(w);
+                    }
+                    else if (name.toLowerCase().endsWith(".mp3") && !name.startsWith("."))
+                        scan(p.toFile());
                 }
-                if (DEST_DIR != null)
+            }
+            catch (IOException ex)
+            {
+                System.err.print(dir + " ");
+                ex.printStackTrace();
+            }
+            catch (DirectoryIteratorException ex)
+            {
+                System.err.print(dir + " ");
+                ex.getCause().printStackTrace();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                try { if (list != null) list.close(); } catch (IOException ex) { }
+            }
+            for (int i = 0; i < subdirs.size(); i++)
+                subdirs.get(i).join();
+        }
+    }
+
+    private void scan(File f)
+        throws InterruptedException
+    {
+        if (executor == null)
+            scanFile(f);
+        else
+        {
+            // don't get more than concurrency files ahead of the parsers.
+            final File file = f;
+            inFlight.acquire();
+            executor.execute(new Runnable()
+            {
+                public void run()
                 {
-                    long start = System.currentTimeMillis();
-                    File of = new File(DEST_DIR,"test-" + f.getName());
-                    FileOutputStream out = new FileOutputStream(of,false);
-                    id3.write(out);
-                    in.close();
-                    in = new FileInputStream(f);
-                    long size = f.length();
-                    long passed = id3.originalTagLength();
-                    in.skip(passed);
-                    while (passed < size)
+                    try
+                    {
+                        scanFile(file);
+                    }
+                    finally
                     {
-                        byte[] buf = new byte[in.available()];
-                        int read = in.read(buf);
-                        out.write(buf);
-                        passed += read;
+                        // each virtual thread only parses this one file.
+                        ParseContext.release();
+                        inFlight.release();
                     }
-                    out.flush();
-                    out.close();
-                    long end = System.currentTimeMillis();
-                    dumpCount++;
-                    dumpTime += (end-start);
                 }
-                ok++;
+            });
+        }
+    }
+
+    private void scanFile(File f)
+    {
+        // stat first, so a file that changes while it's being read is looked
+        // at again next time.
+        long size = f.length();
+        long modified = f.lastModified();
+        int result = -1;
+        if (state != null && DEST_DIR == null)
+            result = state.lookup(f.getAbsolutePath(),size,modified);
+        if (result >= 0)
+            unchanged.incrementAndGet();
+        else
+        {
+            result = parse(f);
+            if (state != null)
+                state.record(f.getAbsolutePath(),size,modified,result);
+        }
+        if (result == ScanState.OK)
+            ok.incrementAndGet();
+        else if (result == ScanState.NO_TAG)
+            noTag.incrementAndGet();
+        else if (result == ScanState.BAD_VERSION)
+            badVersion.incrementAndGet();
+        else if (result == ScanState.CORRUPT)
+            corrupt.incrementAndGet();
+        else
+            otherErr.incrementAndGet();
+    }
+
+    // parse a file (and dump it) and say what was found.
+    private int parse(File f)
+    {
+        try
+        {
+            Tag id3 = null;
+            try
+            {
+                id3 = r.read(f);
+                System.out.println("OK : " + f.getAbsolutePath());
             }
-            catch (NotATagException ex)
+            catch (CorruptTagException ex)
             {
-                System.err.println("no tag " + f.getName());
-                noTag++;
+                System.err.println("CORRUPT: " + f.getAbsolutePath());
+                System.err.println("         " + ex.getMessage());
+                return ScanState.CORRUPT;
             }
             catch (InvalidVersionException ex)
             {
-                badVersion++;
+                System.err.println("BAD_VERSION: " + f.getAbsolutePath());
+                return ScanState.BAD_VERSION;
             }
-            catch (IOException ex)
+            catch (NotATagException ex)
             {
-                System.err.print(f.getName() + " " );
-                ex.printStackTrace();
-                otherErr++;
+                System.err.println("NO_TAG: " + f.getAbsolutePath());
+                return ScanState.NO_TAG;
             }
-            finally
+            if (DEST_DIR != null)
             {
-                try { in.close(); } catch (Exception ex) { }
+                long start = System.currentTimeMillis();
+                File of = new File(DEST_DIR,"test-" + f.getName());
+                Mp3File mp3 = new Mp3File(f);
+                mp3.setTag(id3);
+                mp3.write(of);
+                long end = System.currentTimeMillis();
+                dumpCount.incrementAndGet();
+                dumpTime.addAndGet(end-start);
             }
+            return ScanState.OK;
+        }
+        catch (NotATagException ex)
+        {
+            System.err.println("no tag " + f.getName());
+            return ScanState.NO_TAG;
+        }
+        catch (InvalidVersionException ex)
+        {
+            return ScanState.BAD_VERSION;
+        }
+        catch (IOException ex)
+        {
+            System.err.print(f.getName() + " " );
+            ex.printStackTrace();
+            return ScanState.ERROR;
         }
     }
 
@@ -155,9 +341,23 @@ public class FsScanner
     {
         String source = System.getProperty("source");
         String dest = System.getProperty("dest");
+        int threads = Integer.getInteger("threads",0).intValue();
+        int walkers = Integer.getInteger("walkers",1).intValue();
+        File stateFile = System.getProperty("state") == null ? null : new File(System.getProperty("state"));
 
         File f = new File(source);
-        FsScanner fs = new FsScanner(f);
-        fs.scan();
+        FsScanner fs = new FsScanner(f,threads,walkers);
+        try
+        {
+            if (stateFile != null)
+                fs.setScanState(ScanState.load(stateFile));
+            fs.scan();
+            if (stateFile != null)
+                fs.state.save(stateFile);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
     }
 }
@@ -1,6 +1,7 @@
 package com.dusbabek.lib.id3;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 
 /**
  * One-stop shopping for editing a tag in a file.  Simple values only.
@@ -26,92 +27,115 @@ public class Id3
     public void setTitle(String title)
     {
         ensureTag();
-        tag.putFrame(FrameType.SongName,title);
+        tag.setTitle(title);
     }
 
     public void setArtist(String artist)
     {
         ensureTag();
-        tag.putFrame(FrameType.Artist,artist);
+        tag.setArtist(artist);
     }
 
     public void setAlbum(String album)
     {
         ensureTag();
-        tag.putFrame(FrameType.Album,album);
+        tag.setAlbum(album);
     }
 
     public void setYear(String year)
     {
         ensureTag();
-        tag.putFrame(FrameType.Year,year);
+        tag.setYear(year);
     }
 
     public void setGenre(String genre)
     {
         ensureTag();
-        tag.putFrame(FrameType.Genre,genre);
+        tag.setGenre(genre);
     }
 
     public void setTrack(String track)
     {
         ensureTag();
-        tag.putFrame(FrameType.Track,track);
+        tag.setTrack(track);
     }
 
     public void rewrite()
         throws IOException
     {
-        InputStream in = new FileInputStream(file);
-        File outFile = new File(file.getParentFile(),file.getName() + ".tmp");
-        OutputStream out = new FileOutputStream(outFile,false);
-        long bytesToRead = 0;
+        rewrite(null);
+    }
+
+    // the file is replaced atomically when the tag doesn't fit. Its directory
+    // is synced right away, or later by dirs along with others.
+    public void rewrite(DirectorySync dirs)
+        throws IOException
+    {
+        if (state == NO_STATE)
+            throw new IOException("NO STATE");
+        ensureTag();
+        // a v1 tag lives at the end of the file and is overwritten there.
+        if (tag instanceof Tag_v1)
+        {
+            Mp3File.write1x(file,(Tag_v1)tag);
+            TagCache.getShared().invalidate(file);
+            return;
+        }
+        // don't copy the audio when the new tag fits where the old one was.
+        if (state == OK && Mp3File.writeInPlace(file,tag))
+        {
+            TagCache.getShared().invalidate(file);
+            return;
+        }
+        long skip = 0;
         // we need to read past the old tag.
         switch (state)
         {
-            case NO_STATE: throw new IOException("NO STATE");
             case INVALID_VERSION:
             case MISSING: // write in front
-                bytesToRead = file.length();
+                skip = 0;
                 break;
             case CORRUPT: // rip out everything before the first sync signal.
-                in.close();
-                bytesToRead = file.length() - skipToSync(file);
-                in = new FileInputStream(file);
-                in.skip(file.length() - bytesToRead);
+                skip = skipToSync(file);
                 break;
             case OK:
                 // proceed normally.
-                in.skip(tag.originalTagLength());
-                bytesToRead = file.length() - tag.originalTagLength();
+                skip = tag.originalTagLength();
                 break;
             default: throw new IOException("Invalid state " + state);
         }
 
-        long bytesRead = 0;
-        while (bytesRead < bytesToRead)
+        File outFile = Mp3File.tempFileFor(file);
+        try
+        {
+            FileInputStream in = new FileInputStream(file);
+            try
+            {
+                FileOutputStream out = new FileOutputStream(outFile,false);
+                try
+                {
+                    tag.write(out);
+                    FileChannel ch = in.getChannel();
+                    Mp3File.transfer(ch,skip,ch.size() - skip,out.getChannel());
+                    out.flush();
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            Mp3File.replace(outFile,file,dirs);
+        }
+        finally
         {
-            int avail = in.available();
-            if (avail < 0)
-                throw new IOException("expected some bytes.");
-            else if (avail == 0)
-                continue;
-            byte[] buf = new byte[avail];
-            int read = in.read(buf);
-            if (read == 0)
-                continue;
-            if (read < 0)
-                throw new IOException("expected some bytes.");
-            bytesRead += read;
-            out.write(buf);
+            // gone already if it replaced the file.
+            outFile.delete();
         }
-        out.flush();
-        in.close();
-        out.close();
-        if (!file.delete())
-            throw new IOException("Could not delete original file.");
-        if (!outFile.renameTo(file))
-            throw new IOException("Could not rename temp file.");
+        TagCache.getShared().invalidate(file);
     }
 
 
@@ -120,27 +144,18 @@ public class Id3
         throws IOException
     {
         FileInputStream in = new FileInputStream(f);
-        byte[] b = new byte[1];
-        long size = f.length();
-        int pos = 0;
-        boolean found = false;
-        while (pos < size && !found)
+        try
         {
-            pos += in.read(b);
-            if (b[0] == 0xff)
-            {
-                pos +=in.read(b);
-                if ((b[0] & 0xe0) > 0)
-                {
-                    found = true;
-                    break;
-                }
-            }
+            FileChannel ch = in.getChannel();
+            long found = Mp3File.findSync(ch,0,ch.size());
+            if (found < 0)
+                throw new IOException("sync signal not found.");
+            return found;
+        }
+        finally
+        {
+            in.close();
         }
-        in.close();
-        if (!found)
-            throw new IOException("sync signal not found.");
-        return pos-2;
     }
 
     // precondition: state != NO_STATE and read() has been called.
@@ -150,7 +165,7 @@ public class Id3
         {
             try
             {
-                tag = new Tag();
+                tag = new Tag_v2();
             }
             catch (IOException ex)
             {
@@ -164,12 +179,10 @@ public class Id3
     {
         if (file == null)
             throw new IOException("file not set.");
-        Reader reader = new Reader();
-        InputStream in = new FileInputStream(file);
         state = OTHER_ERROR; // catch all in case generic IOEx is thrown.
         try
         {
-            tag = reader.read(in);
+            tag = TagCache.getShared().read(file);
             state = OK;
         }
         catch (NotATagException ex)
@@ -19,9 +19,7 @@ The End
 package com.dusbabek.junk;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
@@ -130,8 +128,7 @@ public class TagPanel
         {
             File f = new File(fileName);
             Reader r = new Reader();
-            InputStream in = new FileInputStream(f);
-            Tag t = r.read(in,f.length());
+            Tag t = r.read(f);
             curFile = f;
             setModel(t);
         }
@@ -0,0 +1,195 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A SHA-256 hash of just the audio in an MP3: everything from the first sync
+ * signal after the ID3v2.x tag up to any APE and ID3v1.x tags at the end.
+ * Re-tagging a file doesn't change it, so two files with equal fingerprints
+ * are copies of the same audio. Fingerprints are equal when their hashes
+ * are, so they can be used as keys to group duplicates.
+ *
+ * The audio is streamed through a FileChannel into large direct buffers,
+ * which are shared between calls.
+ */
+public class AudioFingerprint
+{
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // direct buffers are expensive to make; keep a few around.
+    private static final int POOL_SIZE = 8;
+    private static final ByteBuffer[] buffers = new ByteBuffer[POOL_SIZE];
+    private static int bufferCount = 0;
+
+    private Path path = null;
+    private long start = 0;
+    private long end = 0;
+    private byte[] hash = null;
+
+    private AudioFingerprint(Path path, long start, long end, byte[] hash)
+    {
+        super();
+        this.path = path;
+        this.start = start;
+        this.end = end;
+        this.hash = hash;
+    }
+
+    /**
+     * fingerprint a file.
+     * @param path Path
+     * @return AudioFingerprint
+     * @throws IOException
+     */
+    public static AudioFingerprint of(Path path)
+        throws IOException
+    {
+        FileChannel ch = FileChannel.open(path,StandardOpenOption.READ);
+        ByteBuffer buf = takeBuffer();
+        try
+        {
+            long end = Mp3File.audioEnd(ch);
+            long start = Mp3File.headEnd(ch);
+            // skip junk between the tag and the audio, if it's an mpeg at all.
+            long sync = Mp3File.findSync(ch,start,end);
+            if (sync >= 0)
+                start = sync;
+            MessageDigest md = MessageDigest.getInstance(ALGORITHM);
+            long pos = start;
+            while (pos < end)
+            {
+                buf.clear();
+                if (end - pos < buf.capacity())
+                    buf.limit((int)(end - pos));
+                int read = ch.read(buf,pos);
+                if (read < 0)
+                    throw new IOException("Expected " + (end - pos) + " more bytes.");
+                buf.flip();
+                md.update(buf);
+                pos += read;
+            }
+            return new AudioFingerprint(path,start,Math.max(start,end),md.digest());
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new RuntimeException(ex.getMessage());
+        }
+        finally
+        {
+            giveBuffer(buf);
+            ch.close();
+        }
+    }
+
+    /**
+     * fingerprint many files at once, at most twice the number of processors
+     * at a time. Failures don't stop the batch; they are reported in the
+     * result for that file.
+     * @param paths Collection
+     * @param executor Executor if it rejects a file, the file is hashed on the
+     * calling thread.
+     * @return List one per path, in the same order as paths.
+     * @throws InterruptedIOException if the calling thread is interrupted
+     * while waiting.
+     */
+    public static List<FingerprintResult> ofAll(Collection<Path> paths, Executor executor)
+        throws InterruptedIOException
+    {
+        Batch<FingerprintResult> batch = new Batch<FingerprintResult>()
+        {
+            protected FingerprintResult run(Path path)
+                throws IOException
+            {
+                return new FingerprintResult(path,of(path),null);
+            }
+
+            protected FingerprintResult failed(Path path, IOException ex)
+            {
+                return new FingerprintResult(path,null,ex);
+            }
+        };
+        return batch.runAll(paths,executor,Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /** @return the file that was hashed. */
+    public Path getPath() { return path; }
+
+    /** @return where the audio starts. */
+    public long getStart() { return start; }
+
+    /** @return where the audio ends (exclusive). */
+    public long getEnd() { return end; }
+
+    /** @return the hash. */
+    public byte[] getHash() { return hash.clone(); }
+
+    /** {@inheritDoc}  */
+    public boolean equals(Object o)
+    {
+        return o instanceof AudioFingerprint && Arrays.equals(hash,((AudioFingerprint)o).hash);
+    }
+
+    /** {@inheritDoc}  */
+    public int hashCode()
+    {
+        return (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
+    }
+
+    /** @return the hash in hex. */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(hash.length * 2);
+        for (int i = 0; i < hash.length; i++)
+        {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0x0f,16));
+            sb.append(Character.forDigit(hash[i] & 0x0f,16));
+        }
+        return sb.toString();
+    }
+
+    private static synchronized ByteBuffer takeBuffer()
+    {
+        if (bufferCount == 0)
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer b = buffers[--bufferCount];
+        buffers[bufferCount] = null;
+        return b;
+    }
+
+    // keep it if there is room; otherwise let it be collected.
+    private static synchronized void giveBuffer(ByteBuffer b)
+    {
+        if (bufferCount < POOL_SIZE)
+            buffers[bufferCount++] = b;
+    }
+}
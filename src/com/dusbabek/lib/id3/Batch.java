@@ -0,0 +1,150 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Does something to many files at once on an executor, and collects one
+ * result per file. Failures don't stop the batch; they become the result
+ * for that file. The calling thread hands out files no faster than the
+ * executor finishes them, so a big batch doesn't pile up in the executor's
+ * queue.
+ */
+abstract class Batch<R>
+{
+    /**
+     * do the work for one file.
+     * @param path Path
+     * @return R
+     * @throws IOException
+     */
+    protected abstract R run(Path path)
+        throws IOException;
+
+    /**
+     * @param path Path
+     * @param ex IOException why the work for path failed.
+     * @return R the result for a file whose work failed.
+     */
+    protected abstract R failed(Path path, IOException ex);
+
+    /**
+     * run the batch.
+     * @param paths Collection
+     * @param executor Executor if it rejects a file, the file is done on the
+     * calling thread.
+     * @param maxInFlight int most files being worked on at any time.
+     * @return List one per path, in the same order as paths.
+     * @throws InterruptedIOException if the calling thread is interrupted
+     * while waiting.
+     */
+    List<R> runAll(Collection<Path> paths, Executor executor, int maxInFlight)
+        throws InterruptedIOException
+    {
+        AtomicReferenceArray<R> results = new AtomicReferenceArray<R>(paths.size());
+        Semaphore inFlight = new Semaphore(Math.max(1,maxInFlight));
+        CountDownLatch done = new CountDownLatch(results.length());
+        try
+        {
+            Iterator<Path> it = paths.iterator();
+            for (int i = 0; i < results.length(); i++)
+            {
+                Runnable task = new Task(it.next(),results,i,inFlight,done);
+                inFlight.acquire();
+                try
+                {
+                    executor.execute(task);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    task.run();
+                }
+            }
+            done.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a batch.");
+        }
+        List<R> list = new ArrayList<R>(results.length());
+        for (int i = 0; i < results.length(); i++)
+            list.add(results.get(i));
+        return list;
+    }
+
+    // does the work for one file and records the outcome.
+    private class Task
+        implements Runnable
+    {
+        private Path path = null;
+        private AtomicReferenceArray<R> results = null;
+        private int index = 0;
+        private Semaphore inFlight = null;
+        private CountDownLatch done = null;
+
+        private Task(Path path, AtomicReferenceArray<R> results, int index, Semaphore inFlight, CountDownLatch done)
+        {
+            super();
+            this.path = path;
+            this.results = results;
+            this.index = index;
+            this.inFlight = inFlight;
+            this.done = done;
+        }
+
+        public void run()
+        {
+            try
+            {
+                results.set(index,Batch.this.run(path));
+            }
+            catch (IOException ex)
+            {
+                results.set(index,failed(path,ex));
+            }
+            catch (RuntimeException ex)
+            {
+                // a bug rather than a bad file, but don't lose the batch.
+                IOException wrapped = new IOException("Unexpected error with " + path + ": " + ex);
+                wrapped.initCause(ex);
+                results.set(index,failed(path,wrapped));
+            }
+            finally
+            {
+                // the executor may well be a thread per file.
+                ParseContext.release();
+                inFlight.release();
+                done.countDown();
+            }
+        }
+    }
+}
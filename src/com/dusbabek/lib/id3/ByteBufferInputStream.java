@@ -0,0 +1,91 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts a ByteBuffer to an InputStream.  Reading advances the position of
+ * the buffer, so the stream based parsing code (extended headers, etc.) can be
+ * pointed at a mapped region without copying it first.
+ */
+public class ByteBufferInputStream
+    extends InputStream
+{
+    private ByteBuffer buf = null;
+
+    /**
+     * wrap a buffer. Bytes between the position and limit are readable.
+     * @param buf ByteBuffer
+     */
+    public ByteBufferInputStream(ByteBuffer buf)
+    {
+        super();
+        this.buf = buf;
+    }
+
+    /** @return the underlying buffer. */
+    public ByteBuffer getBuffer() { return buf; }
+
+    // point the stream at another buffer, so one adapter can be reused.
+    void setBuffer(ByteBuffer buf) { this.buf = buf; }
+
+    /** {@inheritDoc}  */
+    public int read()
+    {
+        if (!buf.hasRemaining())
+            return -1;
+        return buf.get() & 0xff;
+    }
+
+    /** {@inheritDoc}  */
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0)
+            return 0;
+        if (!buf.hasRemaining())
+            return -1;
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    /** {@inheritDoc}  */
+    public long skip(long n)
+    {
+        if (n <= 0)
+            return 0;
+        int skipped = (int)Math.min(n, buf.remaining());
+        buf.position(buf.position() + skipped);
+        return skipped;
+    }
+
+    /** {@inheritDoc}  */
+    public int available() { return buf.remaining(); }
+
+    /** {@inheritDoc}  */
+    public boolean markSupported() { return true; }
+
+    /** {@inheritDoc}  */
+    public void mark(int readlimit) { buf.mark(); }
+
+    /** {@inheritDoc}  */
+    public void reset() { buf.reset(); }
+}
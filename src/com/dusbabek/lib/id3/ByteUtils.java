@@ -21,8 +21,11 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.*;
-import java.util.zip.ZipOutputStream;
-import java.util.zip.ZipInputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 
 /**
  * Utilities for converting long to bytes and vice versa.  Please note that the
@@ -32,6 +35,12 @@ import java.util.zip.ZipInputStream;
  */
 public class ByteUtils
 {
+    // reads 8 bytes of an array at a time for the scanning kernels.
+    private static final VarHandle LONGS =
+        MethodHandles.byteArrayViewVarHandle(long[].class,ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
     /**
      * convert a 3 byte array to an 8 byte long. only last 3 bytes matter though.
      * @param b byte[]
@@ -129,6 +138,47 @@ public class ByteUtils
 
     }
 
+    /**
+     * make a string (default charset) out of part of a buffer without copying
+     * the bytes into an intermediate array.
+     * @param b ByteBuffer
+     * @param offset int absolute index of the first byte.
+     * @param len int
+     * @return String
+     */
+    public static String toString(ByteBuffer b, int offset, int len)
+    {
+        ByteBuffer d = b.duplicate();
+        d.limit(offset + len);
+        d.position(offset);
+        return Charset.defaultCharset().decode(d).toString();
+    }
+
+    /**
+     * write the remaining bytes of a buffer to a stream.  The buffer position
+     * is advanced to its limit.
+     * @param b ByteBuffer
+     * @param out OutputStream
+     * @throws IOException
+     */
+    public static void write(ByteBuffer b, OutputStream out)
+        throws IOException
+    {
+        if (b.hasArray())
+        {
+            out.write(b.array(),b.arrayOffset() + b.position(),b.remaining());
+            b.position(b.limit());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(b.remaining(),8192)];
+        while (b.hasRemaining())
+        {
+            int len = Math.min(chunk.length,b.remaining());
+            b.get(chunk,0,len);
+            out.write(chunk,0,len);
+        }
+    }
+
     /**
      * decompress data using ZLIB.
      * @param b byte[] data to decompress.
@@ -139,14 +189,7 @@ public class ByteUtils
     public static byte[] zip_expand(byte[] b, long size)
         throws IOException
     {
-        ByteArrayInputStream bin = new ByteArrayInputStream(b);
-        ZipInputStream in = new ZipInputStream(bin);
-        byte[] buf = new byte[(int)size];
-        int read = in.read(buf);
-        if (read != size)
-            throw new IOException("Expected " + size + " bytes, got " + read + ".");
-        in.close();
-        return buf;
+        return ZlibCodec.inflate(ByteBuffer.wrap(b),size);
     }
 
     /**
@@ -158,14 +201,7 @@ public class ByteUtils
     public static byte[] zip(byte[] b)
         throws IOException
     {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        ZipOutputStream out = new ZipOutputStream(bout);
-        out.write(b);
-        out.flush();
-        out.finish();
-        byte[] d = bout.toByteArray();
-        out.close();
-        return d;
+        return ZlibCodec.deflate(ByteBuffer.wrap(b));
     }
 
 //    private static void examine(byte[] b)
@@ -219,83 +255,203 @@ public class ByteUtils
     }
 
 
-    // remove false synchronizations.
-    public static byte[] unsync(byte[] data)
+    /**
+     * find the next 0xff. Scans a word (8 bytes) at a time: inverting the word
+     * turns 0xff bytes into zero bytes, which the usual has-a-zero-byte trick
+     * picks out. The lowest flagged byte is always a real match.
+     * @param b byte[]
+     * @param from int first index to look at.
+     * @param to int index to stop before.
+     * @return index of the first 0xff in [from,to), or -1.
+     */
+    public static int indexOfFF(byte[] b, int from, int to)
     {
-        // ff 00 --> ff 00 00
-        // ff ex --> ff 00 ex
-        int finalSize = 0;
-        for (int i = 0; i < data.length; i++)
+        int i = from;
+        for (; i + 8 <= to; i += 8)
         {
-            if (i + 1 < data.length)
-            {
-                if (data[i] == 0xff && data[i + 1] == 0x00)
-                    finalSize += 2;
-                else if (data[i] == 0xff && (data[i + 1] & 0xe0) > 0)
-                    finalSize += 2;
-                else
-                    finalSize++;
-            }
-            else
-                finalSize++;
+            long x = ~(long)LONGS.get(b,i);
+            long t = (x - ONES) & ~x & HIGHS;
+            if (t != 0)
+                return i + (Long.numberOfTrailingZeros(t) >>> 3);
         }
-        byte[] nd = new byte[finalSize];
-        int pos = 0;
+        for (; i < to; i++)
+        {
+            if (b[i] == (byte)0xff)
+                return i;
+        }
+        return -1;
+    }
 
-        for (int i = 0; i < data.length; i++)
+    /**
+     * same as {@link #indexOfFF(byte[],int,int)} for a buffer (mapped, direct
+     * or heap). Indexes are absolute and the buffer position is not changed.
+     * @param b ByteBuffer
+     * @param from int
+     * @param to int
+     * @return index of the first 0xff in [from,to), or -1.
+     */
+    public static int indexOfFF(ByteBuffer b, int from, int to)
+    {
+        if (b.hasArray())
         {
-            if (i + 1 < data.length)
-            {
-                if ( (data[i] == 0xff && data[i + 1] == 0x00)
-                    || (data[i] == 0xff && (data[i + 1] & 0xe0) > 0))
-                {
-                    nd[pos++] = data[i];
-                    nd[pos++] = 0x00;
-                }
-            }
-            else
-                nd[pos++] = data[i];
+            int off = b.arrayOffset();
+            int i = indexOfFF(b.array(),from + off,to + off);
+            return i < 0 ? -1 : i - off;
+        }
+        ByteBuffer d = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+        for (; i + 8 <= to; i += 8)
+        {
+            long x = ~d.getLong(i);
+            long t = (x - ONES) & ~x & HIGHS;
+            if (t != 0)
+                return i + (Long.numberOfTrailingZeros(t) >>> 3);
         }
+        for (; i < to; i++)
+        {
+            if (d.get(i) == (byte)0xff)
+                return i;
+        }
+        return -1;
+    }
 
-        return nd;
+    /**
+     * count the 00 bytes unsynchronization would insert into part of an array.
+     * @param b byte[]
+     * @param off int
+     * @param len int
+     * @return int
+     */
+    public static int countUnsyncInsertions(byte[] b, int off, int len)
+    {
+        int end = off + len;
+        int count = 0;
+        int i = indexOfFF(b,off,end);
+        while (i >= 0)
+        {
+            if (needsStuffing(b,i + 1,end))
+                count++;
+            i = indexOfFF(b,i + 1,end);
+        }
+        return count;
+    }
 
+    /**
+     * @param b byte[]
+     * @param off int
+     * @param len int
+     * @return true if part of an array contains false synchronizations, i.e.
+     * unsynchronization would change it.
+     */
+    public static boolean needsUnsync(byte[] b, int off, int len)
+    {
+        int end = off + len;
+        int i = indexOfFF(b,off,end);
+        while (i >= 0)
+        {
+            if (needsStuffing(b,i + 1,end))
+                return true;
+            i = indexOfFF(b,i + 1,end);
+        }
+        return false;
     }
 
-    // find false sync replacements
-    public static byte[] sync(byte[] data)
+    // true if the byte following an ff has to be separated from it.
+    private static boolean needsStuffing(byte[] b, int next, int end)
+    {
+        return next >= end || b[next] == 0 || (b[next] & 0xe0) == 0xe0;
+    }
+
+    /**
+     * apply unsynchronization (ff 00 --> ff 00 00, ff ex --> ff 00 ex, and a
+     * trailing ff gets a 00 after it). The result is allocated once, at its
+     * final size. See {@link UnsyncEncodingOutputStream} to do this while
+     * writing.
+     * @param data byte[]
+     * @return byte[]
+     */
+    public static byte[] unsync(byte[] data)
     {
-        // ff 00 ex --> ff ex
-        byte[] nd = new byte[data.length];
+        int insertions = countUnsyncInsertions(data,0,data.length);
+        if (insertions == 0)
+            return data;
+        byte[] nd = new byte[data.length + insertions];
         int pos = 0;
-        for (int i = 0; i < data.length; i++)
+        int run = 0;
+        int i = indexOfFF(data,0,data.length);
+        while (i >= 0)
         {
-            if (i + 2 < data.length && data[i] == 0xff && data[i + 1] == 0x00 && (data[i + 2] & 0xe0) > 0)
+            if (needsStuffing(data,i + 1,data.length))
             {
-                nd[pos++] = data[i];
-                i += 2;
-                nd[pos++] = data[i];
+                // copy everything up to and including the ff, then the 00.
+                System.arraycopy(data,run,nd,pos,i + 1 - run);
+                pos += i + 1 - run;
+                nd[pos++] = 0x00;
+                run = i + 1;
             }
-            else
-                nd[pos++] = data[i];
+            i = indexOfFF(data,i + 1,data.length);
         }
+        System.arraycopy(data,run,nd,pos,data.length - run);
+        return nd;
+    }
+
+    /**
+     * undo unsynchronization (ff 00 --> ff).
+     * @param data byte[]
+     * @return byte[]
+     */
+    public static byte[] sync(byte[] data)
+    {
+        return sync(ByteBuffer.wrap(data));
+    }
 
-        // ff 00 00 --> ff 00
-        byte[] nd2 = new byte[data.length];
-        int max = pos;
-        pos = 0;
-        for (int i = 0; i < max; i++)
+    /**
+     * undo unsynchronization of the bytes between a buffer's position and
+     * limit (ff 00 --> ff) without moving the position. The result is
+     * allocated once, at its final size, so a mapped tag can be decoded
+     * without first being copied. See {@link UnsyncDecodingInputStream} to do
+     * this while reading.
+     * @param b ByteBuffer
+     * @return byte[]
+     */
+    public static byte[] sync(ByteBuffer b)
+    {
+        int start = b.position();
+        int end = b.limit();
+        int stuffed = 0;
+        int i = indexOfFF(b,start,end);
+        while (i >= 0)
         {
-            if (i + 2 < max && nd[i] == 0xff && nd[i + 1] == 0x00 && nd[i + 2] == 00)
+            if (i + 1 < end && b.get(i + 1) == 0)
             {
-                nd2[pos++] = nd[i++];
-                nd2[pos++] = nd[i];
+                stuffed++;
+                i++; // the stuffed byte can't start another pair.
             }
-            else
-                nd2[pos++] = nd[i];
+            i = indexOfFF(b,i + 1,end);
+        }
+        byte[] nd = new byte[end - start - stuffed];
+        ByteBuffer src = b.duplicate();
+        int pos = 0;
+        int run = start;
+        i = indexOfFF(b,start,end);
+        while (i >= 0)
+        {
+            if (i + 1 < end && b.get(i + 1) == 0)
+            {
+                // copy everything up to and including the ff; drop the 00.
+                src.limit(i + 1);
+                src.position(run);
+                src.get(nd,pos,i + 1 - run);
+                pos += i + 1 - run;
+                run = i + 2;
+                i++;
+            }
+            i = indexOfFF(b,i + 1,end);
         }
-        byte[] adjusted = new byte[pos];
-        System.arraycopy(nd2, 0, adjusted, 0, pos);
-        return adjusted;
+        src.limit(end);
+        src.position(run);
+        src.get(nd,pos,end - run);
+        return nd;
     }
 
 }
@@ -19,6 +19,7 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Specialized frame used to store comments.
@@ -88,6 +89,35 @@ public class CommentFrame
         }
     }
 
+    /**
+     * create a comment frame from a header and a buffer of raw data. The
+     * strings are decoded straight out of the buffer.
+     * @param header FrameHeader
+     * @param data ByteBuffer
+     * @throws IOException
+     */
+    public CommentFrame(FrameHeader header, ByteBuffer data)
+        throws IOException
+    {
+        super(header, data);
+        // too short for an encoding byte and a language, so no text.
+        if (data.remaining() < 4)
+            return;
+        // same layout as above.
+        int start = data.position();
+        int end = data.limit();
+        boolean found = false;
+        for (int i = start + 4; i < end && !found; i++)
+        {
+            if (data.get(i) == 0)
+            {
+                found = true;
+                description = ByteUtils.toString(data,start + 4,i - (start + 4));
+                comment = ByteUtils.toString(data,i + 1,end - (i + 1));
+            }
+        }
+    }
+
     /** @return the comment description */
     public String getDescription() { return description; }
 
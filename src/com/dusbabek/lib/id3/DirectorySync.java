@@ -0,0 +1,120 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Directories whose entries have changed (a file was replaced by
+ * {@link Mp3File#rewrite(DirectorySync)}) and still need to be synced to
+ * disk. A replaced file isn't safe from a crash until its directory is
+ * synced, but a bulk job that rewrites thousands of files in a handful of
+ * directories only needs one sync per directory: collect them here and
+ * call {@link #sync()} when the job (or a chunk of it) is done.
+ *
+ * Directories may be added from many threads at once.
+ */
+public class DirectorySync
+{
+    // only windows can't open a directory to sync it.
+    private static final boolean CANT_OPEN_DIRS = System.getProperty("os.name","").startsWith("Windows");
+
+    private Set<File> dirs = new LinkedHashSet<File>();
+
+    /**
+     * remember a directory to sync.
+     * @param dir File
+     */
+    public synchronized void add(File dir)
+    {
+        dirs.add(dir.getAbsoluteFile());
+    }
+
+    /** @return directories waiting to be synced. */
+    public synchronized int size() { return dirs.size(); }
+
+    /**
+     * sync every directory added since the last time, each once. A directory
+     * that fails doesn't stop the others; it is kept to be tried again on the
+     * next call, and the first failure is thrown once all have been tried.
+     * @throws IOException
+     */
+    public void sync()
+        throws IOException
+    {
+        Object[] todo = null;
+        synchronized (this)
+        {
+            todo = dirs.toArray();
+            dirs.clear();
+        }
+        IOException first = null;
+        for (int i = 0; i < todo.length; i++)
+        {
+            try
+            {
+                syncDirectory((File)todo[i]);
+            }
+            catch (IOException ex)
+            {
+                add((File)todo[i]);
+                if (first == null)
+                    first = ex;
+            }
+        }
+        if (first != null)
+            throw first;
+    }
+
+    /**
+     * sync a directory's entries to disk, so files created, moved or
+     * replaced in it survive a crash.
+     * @param dir File
+     * @throws IOException
+     */
+    public static void syncDirectory(File dir)
+        throws IOException
+    {
+        FileChannel ch = null;
+        try
+        {
+            ch = FileChannel.open(dir.toPath(),StandardOpenOption.READ);
+        }
+        catch (IOException ex)
+        {
+            // the move is as safe as it is going to get there. Anywhere else
+            // a directory that can't be opened is a real failure.
+            if (CANT_OPEN_DIRS)
+                return;
+            throw ex;
+        }
+        try
+        {
+            ch.force(true);
+        }
+        finally
+        {
+            ch.close();
+        }
+    }
+}
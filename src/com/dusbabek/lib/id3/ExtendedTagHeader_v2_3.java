@@ -21,6 +21,7 @@ package com.dusbabek.lib.id3;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.CRC32;
 
 /** @todo ensure that extHeaderSize is maintained according to existence of crc. */
 
@@ -94,6 +95,24 @@ public class ExtendedTagHeader_v2_3
             out.write(crc);
     }
 
+    /**
+     * bring the padding size and crc up to date with a tag about to be
+     * written. The crc covers the frames before unsynchronization, but not
+     * the padding.
+     * @param frames byte[] the frames as they are written.
+     * @param padding long bytes of padding after the frames.
+     * @param unsynced boolean true if frames is unsynchronized.
+     */
+    void update(byte[] frames, long padding, boolean unsynced)
+    {
+        sizeOfPadding = padding;
+        if (crc == null)
+            return;
+        CRC32 sum = new CRC32();
+        sum.update(unsynced ? ByteUtils.sync(frames) : frames);
+        crc = ByteUtils.longToByte4(sum.getValue());
+    }
+
     /** @return physical size of extended header */
     public int sizeOf()
     {
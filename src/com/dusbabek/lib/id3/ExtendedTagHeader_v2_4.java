@@ -19,6 +19,7 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.*;
+import java.util.zip.CRC32;
 
 /**
  * Represents a ID3v2.4 extended tag header, which differs SIGNIFICANTLY from
@@ -117,6 +118,28 @@ public class ExtendedTagHeader_v2_4
         return buf;
     }
 
+    /**
+     * bring the crc up to date with a tag about to be written. It covers
+     * everything after the extended header: the frames as they are written
+     * and the padding.
+     * @param frames byte[] the frames as they are written.
+     * @param padding long bytes of padding after the frames.
+     */
+    void update(byte[] frames, long padding)
+    {
+        // a 32 bit crc is written as 5 bytes of 7 bits.
+        if (crc == null || crc.length != 5)
+            return;
+        CRC32 sum = new CRC32();
+        sum.update(frames);
+        byte[] zeros = new byte[(int)Math.min(padding,4096)];
+        for (long left = padding; left > 0; left -= zeros.length)
+            sum.update(zeros,0,(int)Math.min(left,zeros.length));
+        long value = sum.getValue();
+        for (int i = 0; i < crc.length; i++)
+            crc[i] = (byte)(0x7f & (value >> ((4-i)*7)));
+    }
+
     /** @return size of extended header. */
     public int sizeOf() { return size; }
 
@@ -0,0 +1,65 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The outcome of fingerprinting one file in a batch: either the
+ * fingerprint, or the exception hashing it threw.
+ * See {@link AudioFingerprint#ofAll(java.util.Collection,java.util.concurrent.Executor)}.
+ */
+public class FingerprintResult
+{
+    private Path path = null;
+    private AudioFingerprint fingerprint = null;
+    private IOException error = null;
+
+    /**
+     * @param path Path
+     * @param fingerprint AudioFingerprint null if it couldn't be made.
+     * @param error IOException null if the file was hashed.
+     */
+    public FingerprintResult(Path path, AudioFingerprint fingerprint, IOException error)
+    {
+        super();
+        this.path = path;
+        this.fingerprint = fingerprint;
+        this.error = error;
+    }
+
+    /** @return the file that was hashed. */
+    public Path getPath() { return path; }
+
+    /** @return the fingerprint, or null if there was an error. */
+    public AudioFingerprint getFingerprint() { return fingerprint; }
+
+    /** @return why the file couldn't be hashed, or null. */
+    public IOException getError() { return error; }
+
+    /** @return true if the file was hashed. */
+    public boolean isOk() { return error == null; }
+
+    /** {@inheritDoc}  */
+    public String toString()
+    {
+        return path + (error == null ? " " + fingerprint : " " + error);
+    }
+}
@@ -19,7 +19,9 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Tags are composed of individual frames. A frame encapsulates a basic piece
@@ -30,6 +32,7 @@ public class Frame
     private static final boolean verbose = System.getProperty("id3.verbose") != null;
     private FrameHeader header = null;
     private byte[] data = null;
+    private ByteBuffer buffer = null;
 
     /**
      * Creates a frame from a header and raw frame data.
@@ -44,11 +47,76 @@ public class Frame
         this.data = data;
     }
 
+    /**
+     * Creates a frame whose raw data is the bytes between the position and
+     * limit of a buffer, usually a slice of a mapped file or of a shared tag
+     * buffer.  Nothing is copied until {@link #getData()} is called. The frame
+     * takes ownership of the buffer; don't move its position afterwards.
+     * @param header FrameHeader
+     * @param buffer ByteBuffer
+     * @throws IOException
+     */
+    public Frame(FrameHeader header, ByteBuffer buffer)
+        throws IOException
+    {
+        this.header = header;
+        this.buffer = buffer.isReadOnly() ? buffer : buffer.asReadOnlyBuffer();
+    }
+
     /** @return the frame header */
     public FrameHeader getHeader() { return header; }
 
-    /** @return the raw frame data */
-    public byte[] getData() { return data; }
+    /**
+     * @return the raw frame data. If the frame was created from a buffer, the
+     * bytes are copied out of it the first time this is called.
+     */
+    public byte[] getData()
+    {
+        if (data == null)
+        {
+            ByteBuffer b = buffer.duplicate();
+            byte[] d = new byte[b.remaining()];
+            b.get(d);
+            data = d;
+        }
+        return data;
+    }
+
+    /**
+     * copy the raw frame data out of the buffer it was created from, so the
+     * frame no longer depends on it (e.g. before the file a buffer maps is
+     * overwritten).
+     */
+    void detach()
+    {
+        getData();
+        buffer = null;
+    }
+
+    /**
+     * read the raw frame data in chunks. Nothing is copied, so this is the
+     * way to get at big frames (pictures, objects) that may live in a temp
+     * file rather than on the heap.
+     * @return InputStream
+     */
+    public InputStream openStream()
+    {
+        return new ByteBufferInputStream(getBuffer());
+    }
+
+    /** @return a read-only view of the raw frame data. Nothing is copied. */
+    public ByteBuffer getBuffer()
+    {
+        if (buffer == null)
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        return buffer.duplicate();
+    }
+
+    /** @return the size of the raw frame data. */
+    public int getDataSize()
+    {
+        return data != null ? data.length : buffer.remaining();
+    }
 
     /** write the frame (all of it) to a stream. */
     public void write(OutputStream out)
@@ -57,13 +125,23 @@ public class Frame
         /** @todo error checking: data.length isn't too big to represents in
          * the bits allowed by a particular version from FrameHeader. */
 
-        byte[] dataToWrite = getData();
         if (getHeader().compressed())
-            dataToWrite = ByteUtils.zip(dataToWrite);
-        getHeader().setFrameSize(dataToWrite.length);
-        getHeader().write(out);
-        out.write(dataToWrite);
+        {
+            byte[] dataToWrite = ZlibCodec.deflate(data != null ? ByteBuffer.wrap(data) : buffer.duplicate());
+            getHeader().setFrameSize(dataToWrite.length);
+            getHeader().write(out);
+            out.write(dataToWrite);
+        }
+        else
+        {
+            getHeader().setFrameSize(getDataSize());
+            getHeader().write(out);
+            if (data != null)
+                out.write(data);
+            else
+                ByteUtils.write(buffer.duplicate(),out);
+        }
         if (verbose)
-            System.out.println("write frame " + getHeader().getId() + "," + dataToWrite.length + "," + getHeader().compressed());
+            System.out.println("write frame " + getHeader().getId() + "," + getHeader().getSize() + "," + getHeader().compressed());
     }
 }
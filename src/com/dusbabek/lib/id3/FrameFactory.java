@@ -18,8 +18,12 @@ The End
 
 package com.dusbabek.lib.id3;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Factory class that creates all frames.  Give it an input stream and a version
@@ -30,25 +34,60 @@ public class FrameFactory
 {
     private static final boolean verbose = System.getProperty("id3.verbose") != null;
 
+    // payloads read from a stream that are bigger than this many bytes are
+    // kept in a temp file instead of on the heap.
+    private static volatile int spillThreshold = Integer.getInteger("id3.spillThreshold",0x00100000).intValue();
+
+    /** @return the payload size above which frame data read from a stream is
+     * spilled to a temp file. */
+    public static int getSpillThreshold() { return spillThreshold; }
+
+    /**
+     * set the payload size above which frame data read from a stream is
+     * spilled to a temp file and mapped, instead of being read into an array.
+     * Defaults to 1MB, or the id3.spillThreshold system property.
+     * @param bytes int
+     */
+    public static void setSpillThreshold(int bytes) { spillThreshold = bytes; }
+
+    // read until b is full or the stream ends. A stream that decodes as it
+    // goes (unsynchronization) may hand back less than was asked for even
+    // though there is more to come.
+    static int readFully(InputStream in, byte[] b)
+        throws IOException
+    {
+        int read = 0;
+        while (read < b.length)
+        {
+            int r = in.read(b,read,b.length - read);
+            if (r < 0)
+                break;
+            read += r;
+        }
+        return read;
+    }
+
     // read a ID3v2.2 frame header.
     private static FrameHeader_v2_2 readFrameHeader_2_2(InputStream in)
         throws IOException
     {
-        byte[] b = new byte[FrameHeader_v2_2.FRAME_HEADER_LEN];
-        int read = in.read(b);
+        ParseContext ctx = ParseContext.get();
+        byte[] b = ctx.scratch(FrameHeader_v2_2.FRAME_HEADER_LEN);
+        int read = readFully(in,b);
         if (read != b.length)
             throw new IOException("Expected " + b.length + " bytes.");
         if (b[0] == 0 && b[1] == 0 && b[2] == 0)
             return null; // probably reached padding.
-        return new FrameHeader_v2_2(b);
+        return new FrameHeader_v2_2(b,FrameId.get(b,0,3));
     }
 
     // read a ID3v2.3 frame header
     private static FrameHeader_v2_3 readFrameHeader_2_3(InputStream in)
         throws IOException
     {
-        byte[] b = new byte[FrameHeader_v2_3.FRAME_HEADER_LEN];
-        int read = in.read(b);
+        ParseContext ctx = ParseContext.get();
+        byte[] b = ctx.scratch(FrameHeader_v2_3.FRAME_HEADER_LEN);
+        int read = readFully(in,b);
         if (read != b.length)
             throw new IOException("Expected " + b.length + " bytes.");
         if (b[0] == 0 && b[1] == 0 && b[2] == 0)
@@ -56,13 +95,13 @@ public class FrameFactory
             while (in.read() == 0);
             return null; // probably reached padding.
         }
-        FrameHeader_v2_3 my_fh = new FrameHeader_v2_3(b);
+        FrameHeader_v2_3 my_fh = new FrameHeader_v2_3(b,FrameId.get(b,0,4));
         if (my_fh.compressed())
         {
             if (verbose) System.out.println("compressed frame");
             // read 4 byes and set as uncompressed size
-            byte[] uncsz = new byte[4];
-            read = in.read(uncsz);
+            byte[] uncsz = ctx.scratch(4);
+            read = readFully(in,uncsz);
             if (read != uncsz.length)
                 throw new IOException("Expected " + uncsz.length + " bytes.");
             my_fh.setUncompressedSize(ByteUtils.byte4ToLong(uncsz, 0));
@@ -81,13 +120,14 @@ public class FrameFactory
     private static FrameHeader_v2_4 readFrameHeader_2_4(InputStream in)
         throws IOException
     {
-        byte[] b = new byte[FrameHeader_v2_3.FRAME_HEADER_LEN];
-        int read = in.read(b);
+        ParseContext ctx = ParseContext.get();
+        byte[] b = ctx.scratch(FrameHeader_v2_3.FRAME_HEADER_LEN);
+        int read = readFully(in,b);
         if (read != b.length)
             throw new IOException("Expected " + b.length + " bytes.");
         if (b[0] == 0 && b[1] == 0 && b[2] == 0)
             return null; // probably reached padding.
-        FrameHeader_v2_4 my_fh = new FrameHeader_v2_4(b);
+        FrameHeader_v2_4 my_fh = new FrameHeader_v2_4(b,FrameId.get(b,0,4));
         if (my_fh.compressed())
         {
             if (verbose) System.out.println("compressed frame");
@@ -115,8 +155,8 @@ public class FrameFactory
         {
             if (verbose) System.out.println("data length indicator");
             // read 4 byes and set as uncompressed size
-            byte[] uncsz = new byte[4];
-            read = in.read(uncsz);
+            byte[] uncsz = ctx.scratch(4);
+            read = readFully(in,uncsz);
             if (read != uncsz.length)
                 throw new IOException("Expected " + uncsz.length + " bytes.");
             my_fh.setUncompressedSize(ByteUtils.byte4ToLong(uncsz, 0));
@@ -125,35 +165,111 @@ public class FrameFactory
     }
 
     /**
-     * Create a frame.
+     * Read just a frame header of the specified version. The stream is left at
+     * the start of the frame's data.
      * @param in InputStream
      * @param version int
-     * @return Frame, TextFrame or CommentFrame
+     * @return FrameHeader. null if padding was reached.
      * @throws IOException
      */
-    public static Frame makeFrame(InputStream in, int version)
+    public static FrameHeader readFrameHeader(InputStream in, int version)
         throws IOException
     {
-        // construct header.
-        FrameHeader fh = null;
         if (version == 2)
-            fh = readFrameHeader_2_2(in);
+            return readFrameHeader_2_2(in);
         else if (version == 3)
-            fh = readFrameHeader_2_3(in);
+            return readFrameHeader_2_3(in);
         else if (version == 4)
-            fh = readFrameHeader_2_4(in);
+            return readFrameHeader_2_4(in);
         else
             throw new IOException("Unexpected version " + version);
+    }
+
+    /**
+     * cheap sanity checks of a frame header, made when a frame is found so
+     * that a tag whose frames can't be built fails to read, rather than when
+     * the frame is decoded. Big frames are fine; whether there are really
+     * that many bytes is checked when reading them.
+     * @param fh FrameHeader
+     * @throws CorruptFrameException if the id or size is garbage. Like any
+     * corrupt frame, it and whatever follows it should be dropped.
+     * @throws CorruptTagException if the frame is too short for its type.
+     */
+    static void checkHeader(FrameHeader fh)
+        throws IOException
+    {
+        String id = fh.getId();
+        for (int i = 0; i < id.length(); i++)
+        {
+            char c = id.charAt(i);
+            if ((c < 'A' || c > 'Z') && (c < '0' || c > '9'))
+                throw new CorruptFrameException("Invalid frame id: " + id);
+        }
+        if (fh.getSize() < 0)
+            throw new CorruptFrameException("Invalid frame header size: " + id + ", " + fh.getSize());
+        // text starts with an encoding byte; comments with that and a
+        // language.
+        long size = fh.compressed() ? fh.getUncompressedSize() : fh.getSize();
+        if (fh.getFrameId().isText() && size < 1)
+            throw new CorruptTagException("Text frame too short: " + id + ", " + size);
+        if (fh.getFrameId().isComment() && size < 4)
+            throw new CorruptTagException("Comment frame too short: " + id + ", " + size);
+        if (verbose)
+            System.out.println(id + "," + fh.getSize());
+    }
+
+    /**
+     * Create a frame. Frames bigger than 1MB are rejected, since there is no
+     * telling how much of the stream belongs to the tag; see
+     * {@link #makeFrame(InputStream,int,long)}.
+     * @param in InputStream
+     * @param version int
+     * @return Frame, TextFrame or CommentFrame
+     * @throws IOException
+     */
+    public static Frame makeFrame(InputStream in, int version)
+        throws IOException
+    {
+        return makeFrame(in,version,0x00100000);
+    }
+
+    /**
+     * Create a frame that is part of a tag with at most max bytes left in it.
+     * A header claiming more than that is corrupt, and is caught before any
+     * of it is read (or spilled to a temp file).
+     * @param in InputStream
+     * @param version int
+     * @param max long
+     * @return Frame, TextFrame or CommentFrame
+     * @throws IOException
+     */
+    public static Frame makeFrame(InputStream in, int version, long max)
+        throws IOException
+    {
+        // construct header.
+        FrameHeader fh = readFrameHeader(in,version);
         if (fh == null) // reached padding
             return null;
-        // sanity check length reported in frame header.
-        if (fh.getSize() > 0x00100000 || fh.getSize() < 0)
+        checkHeader(fh);
+        if (fh.getSize() > max)
             throw new CorruptFrameException("Invalid frame header size: " + fh.getId() + ", " + fh.getSize());
-        else if (verbose)
-            System.out.println(fh.getId() + "," + fh.getSize());
+        if (fh.getSize() > spillThreshold)
+        {
+            ByteBuffer big = spill(in,fh.getSize());
+            if (big.remaining() != fh.getSize())
+                throw new CorruptFrameException("Expected " + fh.getSize() + " bytes.");
+            return makeFrame(fh,big);
+        }
         // read data
         byte[] data = new byte[fh.getSize()];
-        int read = in.read(data);
+        int read = 0;
+        while (read < data.length)
+        {
+            int r = in.read(data,read,data.length - read);
+            if (r < 0)
+                break;
+            read += r;
+        }
         if (read != data.length)
         {
             // if it is all nulls, then we have reched padding that, for
@@ -174,14 +290,187 @@ public class FrameFactory
             else
                 return null;
         }
-        /** @todo handle unsynchronization */
+        return makeFrame(fh,data);
+    }
+
+    /**
+     * Read the data of a frame that has a header but whose data hasn't been
+     * read yet. Payloads over the spill threshold end up in a temp file.
+     * @param in InputStream
+     * @param size int
+     * @return ByteBuffer holding exactly size bytes.
+     * @throws IOException if the stream ends early.
+     */
+    static ByteBuffer readPayload(InputStream in, int size)
+        throws IOException
+    {
+        if (size > spillThreshold)
+        {
+            ByteBuffer big = spill(in,size);
+            if (big.remaining() != size)
+                throw new CorruptFrameException("Expected " + size + " bytes.");
+            return big;
+        }
+        byte[] b = new byte[size];
+        int read = 0;
+        while (read < b.length)
+        {
+            int r = in.read(b,read,b.length - read);
+            if (r < 0)
+                throw new CorruptFrameException("Expected " + b.length + " bytes.");
+            read += r;
+        }
+        return ByteBuffer.wrap(b).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy up to max bytes of a stream to a temp file and map it. Only a small
+     * chunk is ever on the heap. The file is deleted right away (or when the
+     * VM exits where an open file can't be deleted); the mapping stays valid
+     * until the buffer is collected.
+     * @param in InputStream
+     * @param max long
+     * @return read-only ByteBuffer of the bytes actually read.
+     * @throws IOException
+     */
+    static ByteBuffer spill(InputStream in, long max)
+        throws IOException
+    {
+        File tmp = File.createTempFile("id3",".frame");
+        RandomAccessFile raf = new RandomAccessFile(tmp,"rw");
+        try
+        {
+            FileChannel ch = raf.getChannel();
+            byte[] chunk = new byte[8192];
+            ByteBuffer cb = ByteBuffer.wrap(chunk);
+            long total = 0;
+            while (total < max)
+            {
+                int r = in.read(chunk,0,(int)Math.min(chunk.length,max - total));
+                if (r < 0)
+                    break;
+                cb.clear().limit(r);
+                while (cb.hasRemaining())
+                    ch.write(cb);
+                total += r;
+            }
+            if (verbose)
+                System.out.println("spilled " + total + " bytes to " + tmp);
+            return ch.map(FileChannel.MapMode.READ_ONLY,0,total);
+        }
+        finally
+        {
+            raf.close();
+            if (!tmp.delete())
+                tmp.deleteOnExit();
+        }
+    }
+
+    /**
+     * Read just a frame header from a buffer holding (the rest of) a tag's
+     * frame data. The buffer position is left at the start of the frame's
+     * data, which is guaranteed to be within the buffer.
+     * @param buf ByteBuffer
+     * @param version int
+     * @return FrameHeader. null if padding was reached.
+     * @throws IOException
+     */
+    public static FrameHeader readFrameHeader(ByteBuffer buf, int version)
+        throws IOException
+    {
+        ParseContext ctx = ParseContext.get();
+        FrameHeader fh = null;
+        try
+        {
+            fh = readFrameHeader(ctx.stream(buf),version);
+        }
+        finally
+        {
+            ctx.unstream();
+        }
+        if (fh == null) // reached padding
+            return null;
+        checkHeader(fh);
+        if (buf.remaining() < fh.getSize())
+        {
+            // same recovery as the stream version: trailing nulls are
+            // padding, anything else means the frame is corrupt.
+            while (buf.hasRemaining())
+            {
+                if (buf.get() != 0)
+                    throw new CorruptFrameException("Expected " + fh.getSize() + " bytes.");
+            }
+            return null;
+        }
+        return fh;
+    }
+
+    /**
+     * Create a frame from a buffer holding (the rest of) a tag's frame data.
+     * The buffer position is advanced past the frame. The frame's data is a
+     * slice of the buffer, so the buffer contents must not change afterwards.
+     * @param buf ByteBuffer
+     * @param version int
+     * @return Frame, TextFrame or CommentFrame. null if padding was reached.
+     * @throws IOException
+     */
+    public static Frame makeFrame(ByteBuffer buf, int version)
+        throws IOException
+    {
+        FrameHeader fh = readFrameHeader(buf,version);
+        if (fh == null)
+            return null;
+        // the frame keeps a slice of the buffer; the payload isn't copied.
+        ByteBuffer data = buf.slice();
+        data.limit(fh.getSize());
+        buf.position(buf.position() + fh.getSize());
+        return makeFrame(fh,data);
+    }
 
+    /**
+     * Create a frame from a header that has already been read and the frame's
+     * data (the bytes between position and limit).
+     * @param fh FrameHeader
+     * @param data ByteBuffer
+     * @return Frame, TextFrame or CommentFrame
+     * @throws IOException
+     */
+    public static Frame makeFrame(FrameHeader fh, ByteBuffer data)
+        throws IOException
+    {
         if (fh.compressed())
-            data = ByteUtils.zip_expand(data,fh.getUncompressedSize());
+        {
+            // the expanded bytes need a new array anyway.
+            return makeFrame(fh,ZlibCodec.inflate(data,fh.getUncompressedSize()),false);
+        }
+        if (fh.getFrameId().isText())
+            return new TextFrame(fh,data);
+        else if (fh.getFrameId().isComment())
+            return new CommentFrame(fh,data);
+        else
+            return new Frame(fh,data);
+    }
+
+    // generate the right kind of frame from a header and its data.
+    private static Frame makeFrame(FrameHeader fh, byte[] data)
+        throws IOException
+    {
+        return makeFrame(fh,data,fh.compressed());
+    }
+
+    // generate the right kind of frame from a header and its (maybe still
+    // compressed) data.
+    private static Frame makeFrame(FrameHeader fh, byte[] data, boolean compressed)
+        throws IOException
+    {
+        /** @todo handle unsynchronization */
+
+        if (compressed)
+            data = ZlibCodec.inflate(ByteBuffer.wrap(data),fh.getUncompressedSize());
         // generate right frame.
-        if (fh.getId().startsWith("T"))
+        if (fh.getFrameId().isText())
             return new TextFrame(fh,data);
-        else if (fh.getId().startsWith("COM"))
+        else if (fh.getFrameId().isComment())
             return new CommentFrame(fh,data);
         else
             return new Frame(fh,data);
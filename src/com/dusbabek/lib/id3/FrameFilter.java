@@ -0,0 +1,128 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects which frames a {@link Reader} should bother with.  Frames are named
+ * either by {@link FrameType} constants (which are translated to the right
+ * textual id for each tag version) or by raw frame ids.  Frames that aren't
+ * selected are skipped without reading their data, and the reader stops as
+ * soon as every selected frame has been found.
+ *
+ * Note that a tag read with a filter only contains the selected frames, so
+ * writing it back out drops everything else.
+ *
+ * A filter never changes once it is made, so one can be shared by readers on
+ * many threads.
+ */
+public class FrameFilter
+{
+    // the selected ids for versions 2, 3 and 4, in that order.
+    private final List<Set<FrameId>> idsByVersion = new ArrayList<Set<FrameId>>(3);
+
+    /**
+     * select frames by type.
+     * @param types int[] constants from FrameType.
+     */
+    public FrameFilter(int[] types)
+    {
+        this(types,new String[0]);
+    }
+
+    /**
+     * select frames by raw id ("TIT2", "TT2", etc.)
+     * @param ids String[]
+     */
+    public FrameFilter(String[] ids)
+    {
+        this(new int[0],ids);
+    }
+
+    /**
+     * select frames by type and by raw id.
+     * @param types int[] constants from FrameType.
+     * @param ids String[]
+     */
+    public FrameFilter(int[] types, String[] ids)
+    {
+        super();
+        for (int version = 2; version <= 4; version++)
+        {
+            Set<FrameId> s = new HashSet<FrameId>();
+            for (int i = 0; i < types.length; i++)
+            {
+                FrameId id = FrameType.getFrameId(types[i],version);
+                // some frames don't exist in every version.
+                if (id != null)
+                    s.add(id);
+            }
+            for (int i = 0; i < ids.length; i++)
+            {
+                // a frame the reader could never find would keep it from
+                // stopping early.
+                if (isValid(ids[i],version))
+                    s.add(FrameId.get(ids[i]));
+            }
+            idsByVersion.add(Collections.unmodifiableSet(s));
+        }
+    }
+
+    /**
+     * @param version int 2, 3 or 4.
+     * @return the set of FrameIds selected for a tag version. Ids that can't
+     * occur in that version (e.g. "TIT2" in an ID3v2.2 tag) aren't in it.
+     */
+    public Set<FrameId> getIds(int version)
+    {
+        if (version < 2 || version > 4)
+            throw new RuntimeException("Unexpected ID3 version.");
+        return idsByVersion.get(version - 2);
+    }
+
+    // true if a frame id can occur in a tag version: 3 characters in 2.2, 4
+    // after that, all of them A-Z or 0-9.
+    private static boolean isValid(String id, int version)
+    {
+        if (id.length() != (version == 2 ? 3 : 4))
+            return false;
+        for (int i = 0; i < id.length(); i++)
+        {
+            char c = id.charAt(i);
+            if ((c < 'A' || c > 'Z') && (c < '0' || c > '9'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param id FrameId
+     * @param version int
+     * @return true if frames with this id are selected.
+     */
+    public boolean accept(FrameId id, int version)
+    {
+        return getIds(version).contains(id);
+    }
+}
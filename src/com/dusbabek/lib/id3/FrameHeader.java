@@ -29,6 +29,9 @@ public interface FrameHeader
     /** @return the frame id */
     public String getId();
 
+    /** @return the frame id as a shared FrameId */
+    public FrameId getFrameId();
+
     /** @return the size of frame data */
     public int getSize();
 
@@ -31,7 +31,7 @@ public class FrameHeader_v2_2
     public static final int FRAME_HEADER_LEN = 6;
 
     private int size = 0;
-    private String id = null;
+    private FrameId id = null;
 
     /** construct an empty header using a specified frame id. */
     public FrameHeader_v2_2(String id)
@@ -39,18 +39,28 @@ public class FrameHeader_v2_2
     {
         if (id.length() > 3)
             throw new IOException("Frame id too long: " + id);
-        this.id = id;
+        this.id = FrameId.get(id);
         size = 0;
     }
 
     /** construct a header from raw data */
     public FrameHeader_v2_2(byte[] data)
         throws IOException
+    {
+        this(data,null);
+    }
+
+    /**
+     * construct a header from raw data whose id has already been decoded.
+     * The data isn't kept, so it may be a scratch array.
+     */
+    FrameHeader_v2_2(byte[] data, FrameId id)
+        throws IOException
     {
         super();
         if (data.length != FRAME_HEADER_LEN)
             throw new IOException("Expected " + FRAME_HEADER_LEN + " bytes in frame header.");
-        id = new String(data,0,3);
+        this.id = id == null ? FrameId.get(data,0,3) : id;
         size = (int)ByteUtils.byte3ToLong(data,3);
     }
 
@@ -61,7 +71,10 @@ public class FrameHeader_v2_2
     public int getSize() { return size; }
 
     /** {@inheritDoc}  */
-    public String getId() { return id; }
+    public String getId() { return id.getId(); }
+
+    /** {@inheritDoc}  */
+    public FrameId getFrameId() { return id; }
 
     /** {@inheritDoc}  */
     public int sizeOf() { return FRAME_HEADER_LEN; }
@@ -71,7 +84,7 @@ public class FrameHeader_v2_2
         throws IOException
     {
         /** @assume size has been property let in header write. */
-        byte[] b_id = id.getBytes();
+        byte[] b_id = id.getId().getBytes();
         out.write(b_id,0,3);
         out.write(ByteUtils.longToByte3(size));
     }
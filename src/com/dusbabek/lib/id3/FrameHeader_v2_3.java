@@ -30,7 +30,7 @@ public class FrameHeader_v2_3
     /** basic header is always 10 bytes. */
     public static final int FRAME_HEADER_LEN = 10;
 
-    private String id = null;
+    private FrameId id = null;
     private int size = 0;
     private byte[] flags = new byte[2];
 
@@ -43,18 +43,28 @@ public class FrameHeader_v2_3
     {
         if (id.length() > 4)
             throw new IOException("Header id too long: " + id);
-        this.id = id;
+        this.id = FrameId.get(id);
         size = 0;
     }
 
     /** construct a header from raw data. */
     public FrameHeader_v2_3(byte[] data)
         throws IOException
+    {
+        this(data,null);
+    }
+
+    /**
+     * construct a header from raw data whose id has already been decoded.
+     * The data isn't kept, so it may be a scratch array.
+     */
+    FrameHeader_v2_3(byte[] data, FrameId id)
+        throws IOException
     {
         super();
         if (data.length != FRAME_HEADER_LEN)
             throw new IOException("Expected " + FRAME_HEADER_LEN + " bytes in frame header.");
-        id = new String(data,0,4);
+        this.id = id == null ? FrameId.get(data,0,4) : id;
         size = (int)ByteUtils.byte4ToLong(data,4);
         flags[0] = data[8];
         flags[1] = data[9];
@@ -64,7 +74,10 @@ public class FrameHeader_v2_3
     protected byte[] getFlags() { return flags; }
 
     /** {@inheritDoc}  */
-    public String getId() { return id; }
+    public String getId() { return id.getId(); }
+
+    /** {@inheritDoc}  */
+    public FrameId getFrameId() { return id; }
 
     /** {@inheritDoc}  */
     public int getSize() { return size; }
@@ -79,7 +92,7 @@ public class FrameHeader_v2_3
     public void write(OutputStream out)
         throws IOException
     {
-        byte[] b_id = id.getBytes();
+        byte[] b_id = id.getId().getBytes();
         out.write(b_id,0,4);
         /** @assume size has been properly set in Frame.write(). */
         out.write(ByteUtils.longToByte4(size));
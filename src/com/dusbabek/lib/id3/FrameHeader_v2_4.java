@@ -44,6 +44,13 @@ public class FrameHeader_v2_4
         super(data);
     }
 
+    /** construct a header from raw data whose id has already been decoded. */
+    FrameHeader_v2_4(byte[] data, FrameId id)
+        throws IOException
+    {
+        super(data,id);
+    }
+
     /** {@inheritDoc}  */
     public boolean tagAlterPreservation() { return (getFlags()[0] & 0x40) > 0; }
 
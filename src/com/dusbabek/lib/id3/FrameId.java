@@ -0,0 +1,171 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+/**
+ * A frame id ("TIT2", "COM", ...) packed into an int: one byte per character,
+ * so 3 character ids have a zero high byte.  Ids that are known to the
+ * registry (every id in {@link FrameType} plus the common binary frames) come
+ * back as the same shared object, so decoding them allocates nothing.  Ids
+ * compare and hash by their code, so unknown ids work as keys too.
+ */
+public final class FrameId
+{
+    private static final String[] KNOWN = {
+        // ID3v2.2 binary frames
+        "BUF","CNT","COM","CRA","CRM","ETC","EQU","GEO","IPL","LNK",
+        "MCI","MLL","PIC","POP","REV","RVA","SLT","STC","UFI","ULT",
+        "WAF","WAR","WAS","WCM","WCP","WPB","WXX",
+        // ID3v2.3/2.4 binary frames
+        "AENC","APIC","ASPI","COMM","COMR","ENCR","EQU2","EQUA","ETCO","GEOB",
+        "GRID","IPLS","LINK","MCDI","MLLT","OWNE","PCNT","POPM","POSS","PRIV",
+        "RBUF","RVA2","RVAD","RVRB","SEEK","SIGN","SYLT","SYTC","UFID","USER",
+        "USLT","WCOM","WCOP","WOAF","WOAR","WOAS","WORS","WPAY","WPUB","WXXX"
+    };
+
+    // open addressing table of the known ids. never changes after loading.
+    private static final int TABLE_BITS = 9;
+    private static final int[] codes = new int[1 << TABLE_BITS];
+    private static final FrameId[] ids = new FrameId[1 << TABLE_BITS];
+
+    private static final int COM = pack("COM");
+    private static final int COMM = pack("COMM");
+
+    static
+    {
+        for (int i = 0; i < KNOWN.length; i++)
+            register(KNOWN[i]);
+        for (int v = 2; v <= 4; v++)
+        {
+            String[] known = FrameType.getIds(v);
+            for (int i = 0; i < known.length; i++)
+            {
+                // some frames don't exist in every version.
+                if (known[i].trim().length() > 0)
+                    register(known[i]);
+            }
+        }
+    }
+
+    private final int code;
+    private final String id;
+
+    private FrameId(int code, String id)
+    {
+        this.code = code;
+        this.id = id;
+    }
+
+    /**
+     * look up an id given as text.
+     * @param id String 3 or 4 characters.
+     * @return FrameId
+     */
+    public static FrameId get(String id)
+    {
+        if (id.length() < 3 || id.length() > 4)
+            throw new IllegalArgumentException("Invalid frame id: " + id);
+        int code = pack(id);
+        FrameId fid = lookup(code);
+        return fid != null ? fid : new FrameId(code,id);
+    }
+
+    /**
+     * look up an id given as raw bytes. Known ids don't allocate.
+     * @param b byte[]
+     * @param off int
+     * @param len int 3 or 4.
+     * @return FrameId
+     */
+    public static FrameId get(byte[] b, int off, int len)
+    {
+        int code = 0;
+        for (int i = 0; i < len; i++)
+            code = (code << 8) | (b[off + i] & 0xff);
+        FrameId fid = lookup(code);
+        return fid != null ? fid : new FrameId(code,new String(b,off,len));
+    }
+
+    /** @return the packed id. */
+    public int getCode() { return code; }
+
+    /** @return the textual id. */
+    public String getId() { return id; }
+
+    /** @return true if this is a text information frame (T***). */
+    public boolean isText()
+    {
+        int first = (code & 0xff000000) != 0 ? code >>> 24 : code >>> 16;
+        return first == 'T';
+    }
+
+    /** @return true if this is a comment frame (COM or COMM). */
+    public boolean isComment()
+    {
+        return code == COMM || code == COM;
+    }
+
+    /** {@inheritDoc}  */
+    public int hashCode() { return code; }
+
+    /** {@inheritDoc}  */
+    public boolean equals(Object o)
+    {
+        return o instanceof FrameId && ((FrameId)o).code == code;
+    }
+
+    /** {@inheritDoc}  */
+    public String toString() { return id; }
+
+    // pack the characters of an id into an int.
+    private static int pack(String id)
+    {
+        int code = 0;
+        for (int i = 0; i < id.length(); i++)
+            code = (code << 8) | (id.charAt(i) & 0xff);
+        return code;
+    }
+
+    private static int slot(int code)
+    {
+        return (code * 0x9e3779b9) >>> (32 - TABLE_BITS);
+    }
+
+    private static FrameId lookup(int code)
+    {
+        for (int s = slot(code); ids[s] != null; s = (s + 1) & (ids.length - 1))
+        {
+            if (codes[s] == code)
+                return ids[s];
+        }
+        return null;
+    }
+
+    private static void register(String id)
+    {
+        int code = pack(id);
+        if (lookup(code) != null)
+            return;
+        int s = slot(code);
+        while (ids[s] != null)
+            s = (s + 1) & (ids.length - 1);
+        codes[s] = code;
+        ids[s] = new FrameId(code,id);
+    }
+}
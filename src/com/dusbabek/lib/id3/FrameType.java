@@ -147,4 +147,32 @@ public class FrameType
         else
             throw new RuntimeException("Unexpected ID3 version.");
     }
+
+    /**
+     * same as getId(), but returns the shared FrameId.
+     * @param type int should be a constant as declared in this class.
+     * @param version int 2, 3 or 4.
+     * @return FrameId or null if the frame doesn't exist in that version.
+     */
+    public static FrameId getFrameId(int type, int version)
+    {
+        String id = getId(type,version);
+        return id.trim().length() == 0 ? null : FrameId.get(id);
+    }
+
+    /**
+     * @param version int 2, 3 or 4.
+     * @return every id known for a version, in type order. Don't modify it.
+     */
+    static String[] getIds(int version)
+    {
+        if (version == 2)
+            return V2_TAGS;
+        else if (version == 3)
+            return V3_TAGS;
+        else if (version == 4)
+            return V4_TAGS;
+        else
+            throw new RuntimeException("Unexpected ID3 version.");
+    }
 }
@@ -0,0 +1,51 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Told about changes to the files under a {@link LibraryWatcher}.  Calls are
+ * made one batch at a time from the watcher's thread.
+ */
+public interface LibraryListener
+{
+    /**
+     * MP3s were created or changed and have been read again.
+     * @param results List of ReadResult, one per file. Files that couldn't be
+     * read (no tag, still being copied, etc.) carry the error.
+     */
+    public void tagsChanged(List<ReadResult> results);
+
+    /**
+     * MP3s were deleted or moved away.
+     * @param paths List of Path
+     */
+    public void filesRemoved(List<Path> paths);
+
+    /**
+     * something went wrong, and the watcher carries on without it: a
+     * directory couldn't be watched or looked at again after events were
+     * lost, or reading or reporting a batch threw.
+     * @param dir Path the directory, or null for a failed batch.
+     * @param ex Exception
+     */
+    public void watchFailed(Path dir, Exception ex);
+}
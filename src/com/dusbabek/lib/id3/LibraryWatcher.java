@@ -0,0 +1,470 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches library directories (and everything under them) and rereads MP3s
+ * as they are created or modified, so an index can be kept current without
+ * rescanning the whole library.
+ *
+ * Events are coalesced: a file is reread once the directories have been
+ * quiet for a while (so copying in an album is one batch, not a parse per
+ * write), or at the latest after ten quiet periods of constant activity.
+ * Each batch is read in parallel with {@link Reader#readAll} and handed to a
+ * {@link LibraryListener}.
+ *
+ * The watcher remembers which MP3s each directory holds, so that when a
+ * directory is deleted or moved away every MP3 under it is reported removed,
+ * and so that files deleted while events were lost (an overflow) are still
+ * reported. Symbolic links to directories aren't followed, so a link back up
+ * the tree can't make the watcher register the same directories forever.
+ */
+public class LibraryWatcher
+    implements Runnable
+{
+    private static final boolean verbose = System.getProperty("id3.verbose") != null;
+
+    private WatchService watcher = null;
+    private LibraryListener listener = null;
+    private Executor executor = null;
+    // the executor made by the watcher itself, shut down on close.
+    private ExecutorService ownExecutor = null;
+    private long quietMillis = 0;
+    private Reader reader = new Reader();
+    private Map<WatchKey,Path> keys = new ConcurrentHashMap<WatchKey,Path>();
+    private Thread thread = null;
+
+    // the MP3s in each watched directory, as of the last event for them.
+    private Map<Path,Set<Path>> known = new ConcurrentHashMap<Path,Set<Path>>();
+
+    // what has happened since the last batch.
+    private Set<Path> changed = new LinkedHashSet<Path>();
+    private Set<Path> removed = new LinkedHashSet<Path>();
+
+    /**
+     * watch with a half second quiet period, reading on a pool of daemon
+     * threads (one per processor) that belongs to the watcher. Reading blocks
+     * on I/O, so it is kept off the common fork/join pool.
+     * @param listener LibraryListener
+     * @throws IOException
+     */
+    public LibraryWatcher(LibraryListener listener)
+        throws IOException
+    {
+        this(listener,readers(),500);
+        ownExecutor = (ExecutorService)executor;
+    }
+
+    /**
+     * @param listener LibraryListener
+     * @param executor Executor files in a batch are read on.
+     * @param quietMillis long how long nothing must happen before a batch is
+     * read.
+     * @throws IOException
+     */
+    public LibraryWatcher(LibraryListener listener, Executor executor, long quietMillis)
+        throws IOException
+    {
+        super();
+        this.listener = listener;
+        this.executor = executor;
+        this.quietMillis = quietMillis;
+        watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * watch a directory and all of its subdirectories. Files already there
+     * aren't reported.
+     * @param dir Path
+     * @throws IOException
+     */
+    public void register(Path dir)
+        throws IOException
+    {
+        register(dir,null);
+    }
+
+    /** start watching on a daemon thread. */
+    public synchronized void start()
+    {
+        if (thread != null)
+            return;
+        thread = new Thread(this,"id3-library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stop watching. A batch that is being read is finished first. An
+     * executor passed in by the caller is left running.
+     * @throws IOException
+     */
+    public void close()
+        throws IOException
+    {
+        watcher.close();
+        Thread t = thread;
+        if (t != null && t != Thread.currentThread())
+        {
+            try
+            {
+                t.join();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ownExecutor != null)
+            ownExecutor.shutdown();
+    }
+
+    // the executor batches are read on when the caller doesn't give one.
+    private static ExecutorService readers()
+    {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r,"id3-library-reader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** watch until closed. */
+    public void run()
+    {
+        long firstPending = 0;
+        try
+        {
+            while (true)
+            {
+                WatchKey key = null;
+                if (changed.isEmpty() && removed.isEmpty())
+                    key = watcher.take();
+                else
+                    key = watcher.poll(quietMillis,TimeUnit.MILLISECONDS);
+                if (key != null)
+                {
+                    if (changed.isEmpty() && removed.isEmpty())
+                        firstPending = System.currentTimeMillis();
+                    collect(key);
+                }
+                boolean quiet = key == null;
+                boolean overdue = System.currentTimeMillis() - firstPending > 10 * quietMillis;
+                if ((quiet || overdue) && !(changed.isEmpty() && removed.isEmpty()))
+                    flush();
+            }
+        }
+        catch (ClosedWatchServiceException ex)
+        {
+            // closed.
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // note what a key's events did to which files.
+    private void collect(WatchKey key)
+    {
+        Path dir = keys.get(key);
+        Iterator<WatchEvent<?>> it = key.pollEvents().iterator();
+        while (it.hasNext())
+        {
+            WatchEvent<?> ev = it.next();
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW)
+            {
+                // events were lost; look at everything in the directory.
+                if (dir != null)
+                    rescan(dir);
+                continue;
+            }
+            if (dir == null)
+                continue;
+            Path p = dir.resolve((Path)ev.context());
+            if (ev.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+            {
+                if (known.containsKey(p))
+                    removeTree(p);
+                else if (isMp3(p))
+                    remove(dir,p);
+            }
+            else if (Files.isDirectory(p,LinkOption.NOFOLLOW_LINKS))
+            {
+                // a new directory may have been moved in with files in it.
+                if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                {
+                    try
+                    {
+                        register(p,changed);
+                    }
+                    catch (IOException ex)
+                    {
+                        failed(p,ex);
+                    }
+                }
+            }
+            else if (isMp3(p))
+                change(dir,p);
+        }
+        // the directory itself is gone.
+        if (!key.reset() && keys.remove(key) != null && dir != null)
+            removeTree(dir);
+    }
+
+    // note that an MP3 in a directory was created or changed.
+    private void change(Path dir, Path p)
+    {
+        Set<Path> files = known.get(dir);
+        if (files != null)
+            files.add(p);
+        removed.remove(p);
+        changed.add(p);
+    }
+
+    // note that an MP3 in a directory is gone.
+    private void remove(Path dir, Path p)
+    {
+        Set<Path> files = known.get(dir);
+        if (files != null)
+            files.remove(p);
+        changed.remove(p);
+        removed.add(p);
+    }
+
+    // stop watching a directory tree that is gone, and report every MP3 that
+    // was in it.
+    private void removeTree(Path dir)
+    {
+        Iterator<Map.Entry<WatchKey,Path>> it = keys.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<WatchKey,Path> e = it.next();
+            if (e.getValue().startsWith(dir))
+            {
+                e.getKey().cancel();
+                it.remove();
+            }
+        }
+        Iterator<Map.Entry<Path,Set<Path>>> dirs = known.entrySet().iterator();
+        while (dirs.hasNext())
+        {
+            Map.Entry<Path,Set<Path>> e = dirs.next();
+            if (e.getKey().startsWith(dir))
+            {
+                Iterator<Path> files = e.getValue().iterator();
+                while (files.hasNext())
+                {
+                    Path p = files.next();
+                    changed.remove(p);
+                    removed.add(p);
+                }
+                dirs.remove();
+            }
+        }
+    }
+
+    // read and report everything collected so far.
+    private void flush()
+        throws InterruptedException
+    {
+        List<Path> paths = new ArrayList<Path>(changed);
+        List<Path> gone = new ArrayList<Path>(removed);
+        changed.clear();
+        removed.clear();
+        if (verbose)
+            System.out.println("batch: " + paths.size() + " changed, " + gone.size() + " removed.");
+        try
+        {
+            if (!gone.isEmpty())
+                listener.filesRemoved(gone);
+            if (!paths.isEmpty())
+                listener.tagsChanged(reader.readAll(paths,executor));
+        }
+        catch (InterruptedIOException ex)
+        {
+            throw new InterruptedException(ex.getMessage());
+        }
+        catch (RuntimeException ex)
+        {
+            // keep watching; the next batch may go better.
+            failed(null,ex);
+        }
+    }
+
+    // tell the listener something went wrong. If that goes wrong too there
+    // is nobody left to tell, but the watcher keeps going.
+    private void failed(Path dir, Exception ex)
+    {
+        try
+        {
+            listener.watchFailed(dir,ex);
+        }
+        catch (RuntimeException again)
+        {
+            if (verbose)
+                System.out.println("listener failed: " + again.getMessage());
+        }
+    }
+
+    // watch a directory tree. If found isn't null, the MP3s in it are added.
+    private void register(Path dir, Set<Path> found)
+        throws IOException
+    {
+        WatchKey key = dir.register(watcher,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(key,dir);
+        Set<Path> files = ConcurrentHashMap.newKeySet();
+        known.put(dir,files);
+        DirectoryStream<Path> list = Files.newDirectoryStream(dir);
+        try
+        {
+            Iterator<Path> it = list.iterator();
+            while (it.hasNext())
+            {
+                Path p = it.next();
+                if (Files.isDirectory(p,LinkOption.NOFOLLOW_LINKS))
+                    register(p,found);
+                else if (isMp3(p))
+                {
+                    files.add(p);
+                    if (found != null)
+                        found.add(p);
+                }
+            }
+        }
+        finally
+        {
+            list.close();
+        }
+    }
+
+    // after an overflow, treat every MP3 in a directory as changed, every one
+    // that was there before and isn't now as removed, and pick up or drop
+    // subdirectories that came or went.
+    private void rescan(Path dir)
+    {
+        Set<Path> files = ConcurrentHashMap.newKeySet();
+        Set<Path> subdirs = new HashSet<Path>();
+        try
+        {
+            DirectoryStream<Path> list = Files.newDirectoryStream(dir);
+            try
+            {
+                Iterator<Path> it = list.iterator();
+                while (it.hasNext())
+                {
+                    Path p = it.next();
+                    if (Files.isDirectory(p,LinkOption.NOFOLLOW_LINKS))
+                        subdirs.add(p);
+                    else if (isMp3(p))
+                        files.add(p);
+                }
+            }
+            finally
+            {
+                list.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            failed(dir,ex);
+            return;
+        }
+        Set<Path> before = known.put(dir,files);
+        if (before != null)
+        {
+            Iterator<Path> it = before.iterator();
+            while (it.hasNext())
+            {
+                Path p = it.next();
+                if (!files.contains(p))
+                {
+                    changed.remove(p);
+                    removed.add(p);
+                }
+            }
+        }
+        removed.removeAll(files);
+        changed.addAll(files);
+        List<Path> gone = new ArrayList<Path>();
+        Iterator<Path> it = known.keySet().iterator();
+        while (it.hasNext())
+        {
+            Path p = it.next();
+            if (dir.equals(p.getParent()) && !subdirs.contains(p))
+                gone.add(p);
+        }
+        for (int i = 0; i < gone.size(); i++)
+            removeTree(gone.get(i));
+        it = subdirs.iterator();
+        while (it.hasNext())
+        {
+            Path p = it.next();
+            if (known.containsKey(p))
+                continue;
+            try
+            {
+                register(p,changed);
+            }
+            catch (IOException ex)
+            {
+                failed(p,ex);
+            }
+        }
+    }
+
+    private static boolean isMp3(Path p)
+    {
+        String name = p.getFileName().toString();
+        return name.toLowerCase().endsWith(".mp3") && !name.startsWith(".");
+    }
+}
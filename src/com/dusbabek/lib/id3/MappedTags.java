@@ -0,0 +1,115 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the tags whose frame data is a mapping of their file, so
+ * that every one of them can be detached before the file is rewritten in
+ * place. Tags are held weakly; a tag that is gone needs no detaching.
+ */
+class MappedTags
+{
+    private static final Map<String,List<Ref>> tags = new HashMap<String,List<Ref>>();
+    private static final ReferenceQueue<Tag_v2> cleared = new ReferenceQueue<Tag_v2>();
+
+    private MappedTags()
+    {
+        super();
+    }
+
+    /**
+     * remember that a tag's frame data maps a file.
+     * @param f File
+     * @param t Tag_v2
+     */
+    static synchronized void add(File f, Tag_v2 t)
+    {
+        expunge();
+        String path = f.getAbsolutePath();
+        List<Ref> refs = tags.get(path);
+        if (refs == null)
+        {
+            refs = new ArrayList<Ref>(2);
+            tags.put(path,refs);
+        }
+        refs.add(new Ref(path,t));
+        t.setMappedFrom(f);
+    }
+
+    /**
+     * detach every tag that maps a file. Call before overwriting any part of
+     * it.
+     * @param f File
+     */
+    static void detach(File f)
+    {
+        List<Ref> refs = null;
+        synchronized (MappedTags.class)
+        {
+            refs = tags.remove(f.getAbsolutePath());
+        }
+        if (refs == null)
+            return;
+        for (int i = 0; i < refs.size(); i++)
+        {
+            Tag_v2 t = refs.get(i).get();
+            if (t != null)
+                t.detach();
+        }
+    }
+
+    /** @return the number of files that have mapped tags. */
+    static synchronized int size()
+    {
+        expunge();
+        return tags.size();
+    }
+
+    // drop the references to tags that have been collected.
+    private static void expunge()
+    {
+        Ref r = null;
+        while ((r = (Ref)cleared.poll()) != null)
+        {
+            List<Ref> refs = tags.get(r.path);
+            if (refs != null && refs.remove(r) && refs.isEmpty())
+                tags.remove(r.path);
+        }
+    }
+
+    private static class Ref
+        extends WeakReference<Tag_v2>
+    {
+        private String path;
+
+        private Ref(String path, Tag_v2 t)
+        {
+            super(t,cleared);
+            this.path = path;
+        }
+    }
+}
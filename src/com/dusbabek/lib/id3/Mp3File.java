@@ -23,21 +23,42 @@ import java.io.IOException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * The highest level of dealing with id3s. At this level, you don't have to
  * know about ID3 versions, frames or anything like that. You just open up
- * a file, request its tag, make changes and write to a different file.
+ * a file, request its tag, make changes and write it back or to a different
+ * file.
+ *
+ * Writing back is done in place for ID3v1.x tags and for ID3v2.x tags that
+ * fit in the space (padding included) of the tag already at the front of the
+ * file. Otherwise the file is copied with the new tag to a temp file next to
+ * it, which is synced and atomically moved over the original, so a crash
+ * leaves either the old file or the new one.
  */
 public class Mp3File
 {
+    // APE tags end with a 32 byte footer, and may start with a header like it.
+    private static final int APE_FOOTER_LEN = 32;
+
     private Tag tag = null;
     private File file = null;
-    private Reader reader = null;
 
     /**
-     * constructor. attempts to read a tag. If none is present, a default
-     * ID3v2.3 tag is created with no frames.
+     * constructor. attempts to read a tag (through the shared
+     * {@link TagCache}). If none is present, a default ID3v2.3 tag is created
+     * with no frames.
      * @param file File
      * @throws FileNotFoundException
      * @throws IOException
@@ -46,11 +67,9 @@ public class Mp3File
         throws FileNotFoundException, IOException
     {
         this.file = file;
-        reader = new Reader();
         try
         {
-            FileInputStream fin = new FileInputStream(file);
-            tag = reader.read(fin, file.length());
+            tag = TagCache.getShared().read(file);
         }
         catch (NotATagException ex)
         {
@@ -83,7 +102,18 @@ public class Mp3File
     public Tag getTag() { return tag; }
 
     /**
-     * rewrite to a different file.
+     * write the tag back into the source file. See {@link #rewrite(DirectorySync)}.
+     * @throws IOException
+     */
+    public void write()
+        throws IOException
+    {
+        rewrite(null);
+    }
+
+    /**
+     * rewrite to a different file. If f is the source file, see
+     * {@link #rewrite(DirectorySync)}.
      * @param f File
      * @throws IOException
      */
@@ -91,32 +121,284 @@ public class Mp3File
         throws IOException
     {
         if (f.equals(file))
-            throw new IOException("Cannot rewrite source file.");
+            rewrite(null);
+        else
+        {
+            if (tag.getVersion().startsWith("1."))
+                write1x(f);
+            else
+                write2x(f);
+            TagCache.getShared().invalidate(f);
+        }
+    }
+
+    /**
+     * write the tag back into the source file: in place if it fits (only the
+     * tag bytes are written), otherwise by atomically replacing the file with
+     * a copy. The directory of a replaced file is synced right away, or added
+     * to dirs to be synced later along with others. Before writing in place,
+     * other tags read from the file that still map it are detached from it.
+     * @param dirs DirectorySync may be null.
+     * @throws IOException
+     */
+    public void rewrite(DirectorySync dirs)
+        throws IOException
+    {
         if (tag.getVersion().startsWith("1."))
-            write1x(f);
+            write1x(file,(Tag_v1)tag);
+        else if (!writeInPlace(file,tag))
+        {
+            File tmp = tempFileFor(file);
+            try
+            {
+                write2x(tmp);
+                replace(tmp,file,dirs);
+            }
+            finally
+            {
+                tmp.delete();
+            }
+        }
+        TagCache.getShared().invalidate(file);
+    }
+
+    // a new, empty temp file next to f so it can be moved over f in one step.
+    // Its name is unique, so two writers or one left over from a crash don't
+    // collide. It gets f's permissions where the platform has them.
+    static File tempFileFor(File f)
+        throws IOException
+    {
+        Path tmp = Files.createTempFile(f.getAbsoluteFile().getParentFile().toPath(),f.getName() + ".",".tmp");
+        try
+        {
+            Files.setPosixFilePermissions(tmp,Files.getPosixFilePermissions(f.toPath()));
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // not a posix file system.
+        }
+        catch (IOException ex)
+        {
+            Files.delete(tmp);
+            throw ex;
+        }
+        return tmp.toFile();
+    }
+
+    // sync a finished temp file and move it over f in one step, then sync
+    // f's directory (or leave that to dirs) so the move itself is on disk.
+    static void replace(File tmp, File f, DirectorySync dirs)
+        throws IOException
+    {
+        FileChannel ch = FileChannel.open(tmp.toPath(),StandardOpenOption.WRITE);
+        try
+        {
+            ch.force(true);
+        }
+        finally
+        {
+            ch.close();
+        }
+        Files.move(tmp.toPath(),f.toPath(),StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+        File dir = f.getAbsoluteFile().getParentFile();
+        if (dirs == null)
+            DirectorySync.syncDirectory(dir);
         else
-            write2x(f);
+            dirs.add(dir);
     }
 
-    // support for writing ID3v1.x tags.
+    // copy the source file without its ID3v1.x tag to f and write the tag
+    // after it, with an enhanced block if the source had one.
     private void write1x(File f)
         throws IOException
     {
-        long skip = file.length() - 128;
-        FileOutputStream out = new FileOutputStream(f,false);
         FileInputStream in = new FileInputStream(file);
-        long written = 0;
-        while (written < skip)
+        try
+        {
+            FileChannel ch = in.getChannel();
+            long skip = v1Start(ch);
+            byte[] b = encode1x((Tag_v1)tag,ch.size() - skip);
+            FileOutputStream out = new FileOutputStream(f,false);
+            try
+            {
+                transfer(ch,0,skip,out.getChannel());
+                out.write(b);
+                out.flush();
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
         {
-            byte[] buf = new byte[(int)(skip-written)];
-            int read = in.read(buf);
-            written += read;
-            out.write(buf,0,read);
+            in.close();
         }
-        tag.write(out);
-        out.flush();
-        out.close();
-        in.close();
+    }
+
+    // overwrite the ID3v1.x tag at the end of f, or append one if there
+    // isn't one yet.
+    static void write1x(File f, Tag_v1 tag)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(f,"rw");
+        try
+        {
+            FileChannel ch = raf.getChannel();
+            long start = v1Start(ch);
+            ByteBuffer b = ByteBuffer.wrap(encode1x(tag,ch.size() - start));
+            while (b.hasRemaining())
+                ch.write(b,start + b.position());
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    // the bytes that replace an ID3v1.x tag that took up old bytes at the end
+    // of a file. An existing enhanced block is written as well, but one is
+    // never added since that would mean moving the audio in front of it.
+    private static byte[] encode1x(Tag_v1 tag, long old)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        if (old > Tag_v1.TAG_LENGTH)
+            tag.writeEnhanced(bout);
+        tag.write(bout);
+        return bout.toByteArray();
+    }
+
+    // overwrite the ID3v2.x tag at the start of a file, padding the new tag
+    // out to the length of the old one so the audio stays where it is. Only
+    // the tag region is written. false (and nothing written) if there isn't
+    // an old tag, it has a footer, the new tag doesn't fit in it, or the
+    // tag's padding policy says there would be too much padding left over;
+    // the caller copies the file instead.
+    static boolean writeInPlace(File f, Tag tag)
+        throws IOException
+    {
+        if (!(tag instanceof Tag_v2))
+            return false;
+        Tag_v2 t = (Tag_v2)tag;
+        RandomAccessFile raf = new RandomAccessFile(f,"rw");
+        try
+        {
+            FileChannel ch = raf.getChannel();
+            long room = headEnd(ch);
+            if (room == 0 || startsWith(ch,room - BasicTagHeader.BASIC_TAG_HEADER_LEN,"3DI"))
+                return false;
+            byte[] frameBytes = t.encodeFrames();
+            long padding = room - t.getHeader().sizeOf() - frameBytes.length;
+            if (padding < 0)
+                return false;
+            if (t.getPaddingPolicy().isExcessive(padding,t.getHeader().sizeOf(),frameBytes.length))
+                return false;
+            // this tag, and any other read from f, may still point into a
+            // mapping of what's about to be overwritten.
+            t.detach();
+            MappedTags.detach(f);
+            ByteBuffer b = ByteBuffer.wrap(t.encode(frameBytes,padding));
+            while (b.hasRemaining())
+                ch.write(b,b.position());
+            long pos = b.capacity();
+            ByteBuffer zeros = ByteBuffer.allocate((int)Math.min(padding,4096));
+            while (pos < room)
+            {
+                zeros.clear().limit((int)Math.min(zeros.capacity(),room - pos));
+                pos += ch.write(zeros,pos);
+            }
+            return true;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    // find where the ID3v1.x tag (and any enhanced block in front of it)
+    // starts by looking at the end of the file. If there is no tag, this is
+    // the length of the file.
+    static long v1Start(FileChannel ch)
+        throws IOException
+    {
+        long len = ch.size();
+        if (len < Tag_v1.TAG_LENGTH || !startsWith(ch,len - Tag_v1.TAG_LENGTH,"TAG"))
+            return len;
+        long enhanced = len - Tag_v1.TAG_LENGTH - Tag_v1.ENHANCED_TAG_LENGTH;
+        if (enhanced >= 0 && startsWith(ch,enhanced,"TAG+"))
+            return enhanced;
+        return len - Tag_v1.TAG_LENGTH;
+    }
+
+    // find where the audio ends: in front of the ID3v1.x tag and of an APE
+    // tag, which may sit between the audio and the ID3v1.x tag.
+    static long audioEnd(FileChannel ch)
+        throws IOException
+    {
+        long end = v1Start(ch);
+        if (end < APE_FOOTER_LEN || !startsWith(ch,end - APE_FOOTER_LEN,"APETAGEX"))
+            return end;
+        ByteBuffer b = ByteBuffer.allocate(APE_FOOTER_LEN);
+        while (b.hasRemaining())
+            ch.read(b,end - APE_FOOTER_LEN + b.position());
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        // the size counts the items and the footer, but not the header.
+        long size = b.getInt(12) & 0xffffffffL;
+        if ((b.getInt(20) & 0x80000000) != 0)
+            size += APE_FOOTER_LEN;
+        return size > end ? end : end - size;
+    }
+
+    // find where the ID3v2.x tag (and any footer) ends. 0 if there isn't one,
+    // or if there is one whose length can't be made out; callers look for
+    // the audio from there.
+    static long headEnd(FileChannel ch)
+        throws IOException
+    {
+        try
+        {
+            TagHeader th = TagHeaderFactory.makeHeader(Channels.newInputStream(ch.position(0)));
+            long len = th.getTagSize() + BasicTagHeader.BASIC_TAG_HEADER_LEN;
+            if (th instanceof TagHeader_v2_4 && ((TagHeader_v2_4)th).usesFooter())
+                len += BasicTagHeader.BASIC_TAG_HEADER_LEN;
+            return len;
+        }
+        catch (NotATagException ex)
+        {
+            return 0;
+        }
+        catch (IOException ex)
+        {
+            // an unknown version or a bad extended header. The basic header
+            // still tells how long the tag is, if it makes sense at all.
+            ByteBuffer b = ByteBuffer.allocate(BasicTagHeader.BASIC_TAG_HEADER_LEN);
+            while (b.hasRemaining())
+            {
+                if (ch.read(b,b.position()) < 0)
+                    return 0;
+            }
+            byte[] h = b.array();
+            if (h[0] != 'I' || h[1] != 'D' || h[2] != '3' || ((h[6] | h[7] | h[8] | h[9]) & 0x80) != 0)
+                return 0;
+            long len = ByteUtils.removeZeroBits(ByteUtils.byte4ToLong(h,6)) + BasicTagHeader.BASIC_TAG_HEADER_LEN;
+            if (h[3] >= 4 && (h[5] & 0x10) != 0)
+                len += BasicTagHeader.BASIC_TAG_HEADER_LEN;
+            return len > ch.size() ? 0 : len;
+        }
+    }
+
+    // true if the bytes at pos in a file match an identifier.
+    private static boolean startsWith(FileChannel ch, long pos, String id)
+        throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(id.length());
+        while (b.hasRemaining())
+        {
+            if (ch.read(b,pos + b.position()) < 0)
+                return false;
+        }
+        return new String(b.array()).equals(id);
     }
 
     // support for writing ID3v2.x tags.
@@ -127,16 +409,8 @@ public class Mp3File
         FileOutputStream out = new FileOutputStream(f,false);
         tag.write(out);
         FileInputStream in = new FileInputStream(file);
-        long skipped = 0;
-        while (skipped < skip)
-            skipped += in.skip(skip-skipped);
-        long written = 0;
-        while (written < file.length() - skip)
-        {
-            byte[] buf = new byte[in.available()];
-            written += in.read(buf);
-            out.write(buf);
-        }
+        FileChannel ch = in.getChannel();
+        transfer(ch,skip,ch.size() - skip,out.getChannel());
         out.flush();
         out.close();
         in.close();
@@ -150,55 +424,84 @@ public class Mp3File
     private static long skipToSync(File f)
         throws IOException
     {
-        long id3Len = 0;
-        FileInputStream in = null;
+        FileInputStream in = new FileInputStream(f);
         try
         {
-            in = new FileInputStream(f);
-            TagHeader th = TagHeaderFactory.makeHeader(in);
-            id3Len = th.getTagSize() + 10;
-        }
-        catch (NotATagException ex)
-        {
-            // that's fine. lets just look for a sync signal then.
+            FileChannel ch = in.getChannel();
+            long sync = findSync(ch,headEnd(ch),ch.size());
+            if (sync < 0)
+                throw new IOException("Could not find sync signal.");
+            return sync;
         }
         finally
         {
             in.close();
         }
-        in = new FileInputStream(f);
-        long skipped = 0;
-        while (skipped < id3Len)
-            skipped += in.skip(id3Len-skipped);
-        // at this point we should have a valid sync signal.  But lets read
-        // until we have found it fore sure.
-        byte[] buf = new byte[256]; // should be close eh?
-        boolean found = false;
-        boolean waiting = false;
-        while (skipped < f.length() && !found)
-        {
-            int read = in.read(buf);
+    }
+
+    // copy len bytes from pos in a file to a channel (usually another file's,
+    // at its position). The
+    // bytes go straight from file to file (sendfile, copy_file_range) where
+    // the OS can do that, and through a small direct buffer where it can't.
+    static void transfer(FileChannel in, long pos, long len, WritableByteChannel out)
+        throws IOException
+    {
+        long end = pos + len;
+        while (pos < end)
+        {
+            long n = in.transferTo(pos,end - pos,out);
+            if (n <= 0)
+                break;
+            pos += n;
+        }
+        if (pos == end)
+            return;
+        ByteBuffer buf = ByteBuffer.allocateDirect((int)Math.min(end - pos,64 * 1024));
+        while (pos < end)
+        {
+            buf.clear().limit((int)Math.min(buf.capacity(),end - pos));
+            int read = in.read(buf,pos);
             if (read < 0)
                 throw new IOException("Expected some data.");
-            for (int i = 0; !found && i < read; i++)
+            buf.flip();
+            while (buf.hasRemaining())
+                out.write(buf);
+            pos += read;
+        }
+    }
+
+    // the position of the first sync signal between from and to, or -1. A
+    // sync is 0xff followed by a byte whose top 3 bits are set.
+    static long findSync(FileChannel ch, long from, long to)
+        throws IOException
+    {
+        byte[] buf = new byte[4096];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        long pos = from;
+        boolean waiting = false; // last chunk ended with 0xff.
+        while (pos < to)
+        {
+            bb.clear().limit((int)Math.min(buf.length,to - pos));
+            int read = ch.read(bb,pos);
+            if (read < 0)
+                throw new IOException("Expected some data.");
+            if (waiting && read > 0 && (buf[0] & 0xe0) == 0xe0)
+                return pos - 1;
+            waiting = false;
+            int i = ByteUtils.indexOfFF(buf,0,read);
+            while (i >= 0)
             {
-                if (buf[i] == -1) // 0xff
+                if (i + 1 == read)
                 {
-                    if (waiting)
-                        found = true;
-                    else
-                        waiting = true;
+                    waiting = true;
+                    break;
                 }
-                else if (waiting && (buf[i] & 0xe0) == 0xe0)
-                    found = true;
-                if (found)
-                    id3Len = skipped + i - 1;
+                if ((buf[i + 1] & 0xe0) == 0xe0)
+                    return pos + i;
+                i = ByteUtils.indexOfFF(buf,i + 1,read);
             }
-            skipped += read;
+            pos += read;
         }
-        in.close();
-        if (!found)
-            throw new IOException("Could not find sync signal. " + skipped);
-        return id3Len;
+        return -1;
     }
 }
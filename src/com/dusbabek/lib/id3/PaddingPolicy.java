@@ -0,0 +1,118 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+package com.dusbabek.lib.id3;
+
+/**
+ * How much padding to leave after the frames when an ID3v2.x tag is written,
+ * so later edits that make the tag bigger can still be written in place
+ * (see {@link Mp3File#write()}). The padding is a fixed number of bytes plus
+ * a percentage of the frame data, after which the whole tag is rounded up to
+ * a multiple of a block size.
+ *
+ * A tag rewritten in place keeps all the room the old one had. Shrinking
+ * that room is opt-in: only a policy with a shrink limit does it. When the
+ * room left over is more than the limit (say a big picture was taken out),
+ * and more than the policy would leave anyway, every in-place rewrite
+ * ({@link Mp3File#write()}, {@link Mp3File#rewrite(DirectorySync)} and
+ * Id3.rewrite alike) copies the file with less padding instead.
+ *
+ * Tags use the default policy unless given one of their own. The default
+ * comes from the id3.padding (bytes), id3.paddingPercent, id3.paddingBlock
+ * and id3.paddingMax (shrink limit) system properties, and is no padding at
+ * all if they aren't set.
+ */
+public class PaddingPolicy
+{
+    /** no padding, and existing padding is never shrunk. */
+    public static final PaddingPolicy NONE = new PaddingPolicy(0,0,1,-1);
+
+    private static volatile PaddingPolicy defaultPolicy = new PaddingPolicy(
+        Integer.getInteger("id3.padding",0).intValue(),
+        Integer.getInteger("id3.paddingPercent",0).intValue(),
+        Integer.getInteger("id3.paddingBlock",1).intValue(),
+        Long.getLong("id3.paddingMax",-1).longValue());
+
+    private int bytes = 0;
+    private int percent = 0;
+    private int block = 1;
+    private long maxPadding = -1;
+
+    /**
+     * @param bytes int fixed padding.
+     * @param percent int padding as a percentage of the frame data.
+     * @param block int the tag (header, frames and padding) is rounded up to
+     * a multiple of this. 1 doesn't round.
+     * @param maxPadding long padding beyond this is shrunk when a tag is
+     * rewritten in place, by copying the file. -1 never shrinks.
+     */
+    public PaddingPolicy(int bytes, int percent, int block, long maxPadding)
+    {
+        if (bytes < 0 || percent < 0 || block < 1)
+            throw new IllegalArgumentException("Invalid padding " + bytes + "," + percent + "," + block);
+        this.bytes = bytes;
+        this.percent = percent;
+        this.block = block;
+        this.maxPadding = maxPadding;
+    }
+
+    /** @return the policy tags use unless they have their own. */
+    public static PaddingPolicy getDefault() { return defaultPolicy; }
+
+    /**
+     * set the policy tags use unless they have their own.
+     * @param policy PaddingPolicy
+     */
+    public static void setDefault(PaddingPolicy policy) { defaultPolicy = policy == null ? NONE : policy; }
+
+    /** @return fixed padding. */
+    public int getBytes() { return bytes; }
+
+    /** @return padding as a percentage of the frame data. */
+    public int getPercent() { return percent; }
+
+    /** @return block size the tag is rounded up to. */
+    public int getBlock() { return block; }
+
+    /** @return most padding kept when a tag is rewritten, or -1. */
+    public long getMaxPadding() { return maxPadding; }
+
+    /**
+     * @param headerLen int size of the tag header (extended header included).
+     * @param frameLen long size of the frame data.
+     * @return bytes of padding to write after the frames.
+     */
+    public long padding(int headerLen, long frameLen)
+    {
+        long pad = bytes + frameLen * percent / 100;
+        long over = (headerLen + frameLen + pad) % block;
+        if (over != 0)
+            pad += block - over;
+        return pad;
+    }
+
+    /**
+     * @param padding long padding there is room for.
+     * @param headerLen int size of the tag header (extended header included).
+     * @param frameLen long size of the frame data.
+     * @return true if that much padding should be shrunk.
+     */
+    public boolean isExcessive(long padding, int headerLen, long frameLen)
+    {
+        return maxPadding >= 0 && padding > maxPadding && padding > padding(headerLen,frameLen);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Scratch space for parsing. There is one per thread, so that walking the
+ * headers of a tag doesn't allocate anything besides the header objects the
+ * tag keeps.
+ *
+ * Threads that only live for one file (a virtual thread per file, say) would
+ * make a new context each time, so such tasks should {@link #release()} theirs
+ * when they are done; the next thread picks it up instead.
+ */
+class ParseContext
+{
+    // contexts released by threads that are done with them.
+    private static final BlockingQueue<ParseContext> pool = new ArrayBlockingQueue<ParseContext>(256);
+
+    private static final ThreadLocal<ParseContext> contexts = new ThreadLocal<ParseContext>()
+    {
+        protected ParseContext initialValue()
+        {
+            ParseContext ctx = pool.poll();
+            return ctx == null ? new ParseContext() : ctx;
+        }
+    };
+
+    private byte[] b4 = new byte[4];
+    private byte[] b6 = new byte[6];
+    private byte[] b10 = new byte[10];
+    private ByteBuffer head = ByteBuffer.wrap(b10);
+    private ByteBufferInputStream stream = new ByteBufferInputStream(null);
+
+    private ParseContext()
+    {
+        super();
+    }
+
+    /** @return the context for the current thread. */
+    static ParseContext get()
+    {
+        return contexts.get();
+    }
+
+    /**
+     * give the current thread's context back, to be used by the next thread
+     * that needs one. Call this at the end of a task that parsed on a thread
+     * which won't be parsing again. If the thread does parse again, it gets a
+     * context from the pool (or a new one).
+     */
+    static void release()
+    {
+        ParseContext ctx = contexts.get();
+        contexts.remove();
+        ctx.unstream();
+        // if the pool is full the context is garbage.
+        pool.offer(ctx);
+    }
+
+    /**
+     * The array is shared by everything parsing on this thread, so don't hold
+     * on to it.
+     * @param len int 4, 6 or 10.
+     * @return a scratch array of exactly len bytes.
+     */
+    byte[] scratch(int len)
+    {
+        switch (len)
+        {
+            case 4: return b4;
+            case 6: return b6;
+            case 10: return b10;
+            default: throw new RuntimeException("No scratch array of " + len + " bytes.");
+        }
+    }
+
+    /** @return a cleared buffer over the 10 byte scratch array. */
+    ByteBuffer head()
+    {
+        head.clear();
+        return head;
+    }
+
+    /**
+     * Call {@link #unstream()} when done with the stream, so the context
+     * doesn't keep buf (which may map a file) alive.
+     * @param buf ByteBuffer
+     * @return the shared stream adapter pointed at buf.
+     */
+    ByteBufferInputStream stream(ByteBuffer buf)
+    {
+        stream.setBuffer(buf);
+        return stream;
+    }
+
+    /** let go of the buffer the stream adapter was last pointed at. */
+    void unstream()
+    {
+        stream.setBuffer(null);
+    }
+}
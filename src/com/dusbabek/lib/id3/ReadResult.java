@@ -0,0 +1,65 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The outcome of reading one file in a batch: either the tag, or the
+ * exception reading it threw (NotATagException, CorruptTagException, etc.).
+ * See {@link Reader#readAll(java.util.Collection,java.util.concurrent.Executor)}.
+ */
+public class ReadResult
+{
+    private Path path = null;
+    private Tag tag = null;
+    private IOException error = null;
+
+    /**
+     * @param path Path
+     * @param tag Tag null if it couldn't be read.
+     * @param error IOException null if the tag was read.
+     */
+    public ReadResult(Path path, Tag tag, IOException error)
+    {
+        super();
+        this.path = path;
+        this.tag = tag;
+        this.error = error;
+    }
+
+    /** @return the file that was read. */
+    public Path getPath() { return path; }
+
+    /** @return the tag, or null if there was an error. */
+    public Tag getTag() { return tag; }
+
+    /** @return why the tag couldn't be read, or null. */
+    public IOException getError() { return error; }
+
+    /** @return true if a tag was read. */
+    public boolean isOk() { return error == null; }
+
+    /** {@inheritDoc}  */
+    public String toString()
+    {
+        return path + (error == null ? " OK" : " " + error);
+    }
+}
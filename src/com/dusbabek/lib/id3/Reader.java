@@ -19,6 +19,16 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Parses tags.
@@ -26,11 +36,30 @@ import java.io.*;
 public class Reader
 {
     private static final boolean verbose = System.getProperty("id3.verbose") != null;
+
+    // tags in files that are bigger than this many bytes are mapped instead
+    // of being read onto the heap.
+    private static volatile int mapThreshold = Integer.getInteger("id3.mapThreshold",0x00010000).intValue();
+
     public Reader()
     {
         super();
     }
 
+    /** @return the tag size above which tags in files are mapped. */
+    public static int getMapThreshold() { return mapThreshold; }
+
+    /**
+     * set the tag size above which tags in files are mapped rather than read
+     * onto the heap. Each mapped tag holds on to its mapping (and the disk
+     * space of its file, even if it is deleted) until it is collected, so
+     * keeping thousands of small mapped tags around can run into the limit
+     * on mappings per process. Defaults to 64K, or the id3.mapThreshold
+     * system property.
+     * @param bytes int
+     */
+    public static void setMapThreshold(int bytes) { mapThreshold = bytes; }
+
     /**
      * read a tag from an input stream.
      * @param in InputStream
@@ -41,6 +70,31 @@ public class Reader
     public Tag read(InputStream in, long len)
         throws IOException
     {
+        return read(in,len,null);
+    }
+
+    /**
+     * read only the selected frames of a tag from an input stream.  Frames that
+     * aren't selected are skipped over and reading stops once every selected
+     * frame has been found.
+     * @param in InputStream
+     * @param len long amount of data supposed to be in the stream.
+     * @param filter FrameFilter null to read every frame.
+     * @return Tag
+     * @throws IOException
+     */
+    public Tag read(InputStream in, long len, FrameFilter filter)
+        throws IOException
+    {
+        // if this is a file, a 1.x tag can be read without streaming through
+        // the whole thing.
+        FileChannel ch = null;
+        long start = 0;
+        if (in instanceof FileInputStream)
+        {
+            ch = ((FileInputStream)in).getChannel();
+            start = ch.position();
+        }
         // we need to be able to reset the stream. so use a buffered stream.
         in = new BufferedInputStream(in);
         in.mark(0);
@@ -66,45 +120,43 @@ public class Reader
             // header minus any extended header. This value should be
             // accurately reported in the sizeOf() method.
             int dataSize = (int)tagHeader.getDataSize();
-            byte[] data = new byte[dataSize];
-            int read = in.read(data);
-            if (read != dataSize)
+            // don't go reading (or spilling) a size from a corrupt header.
+            if (dataSize < 0 || dataSize > len - tagHeader.sizeOf())
                 throw new IOException("Expected " + dataSize + " bytes.");
-            // unsync if necessary.
-            if (tagHeader.usesUnsynchronization())
-                data = ByteUtils.unsync(data);
-            // generate frames out of data
-            ByteArrayInputStream bin = new ByteArrayInputStream(data);
-            boolean reachedNulls = false;
-            Tag_v2 tag = new Tag_v2(tagHeader);
-            while (bin.available() > 0 && !reachedNulls)
-            {
-                try
-                {
-                    Frame frame = FrameFactory.makeFrame(bin,tagHeader.getVersion());
-                    if (frame == null)
-                    {
-                        if (verbose)
-                            System.out.println("reached nulls. About " + bin.available() + " bytes left in tag.");
-                        reachedNulls = true;
-                    }
-                    else
-                        tag.putFrame(frame);
-                }
-                catch (CorruptFrameException ex)
+            if (filter != null)
+            {
+                // pick the wanted frames straight off the stream.
+                Tag_v2 tag = new Tag_v2(tagHeader);
+                readFrames(tag,in,dataSize,filter);
+                t = tag;
+            }
+            else
+            {
+                ByteBuffer data = null;
+                if (tagHeader.usesUnsynchronization() && dataSize > FrameFactory.getSpillThreshold())
                 {
-                    // something was "off" in the last frame. try to recover?
-                    if(verbose)
-                        System.out.println("Corrupt frame; backing out.");
-                    reachedNulls = true;
+                    // decode on the way into the temp file.
+                    CountingInputStream cin = new CountingInputStream(in,dataSize);
+                    data = FrameFactory.spill(new UnsyncDecodingInputStream(cin),dataSize);
+                    if (cin.getCount() != dataSize)
+                        throw new IOException("Expected " + dataSize + " bytes.");
                 }
+                else if (tagHeader.usesUnsynchronization())
+                    data = ByteBuffer.wrap(ByteUtils.sync(FrameFactory.readPayload(in,dataSize))).asReadOnlyBuffer();
+                else
+                    data = FrameFactory.readPayload(in,dataSize);
+                // generate frames out of data
+                Tag_v2 tag = new Tag_v2(tagHeader,data);
+                readFrames(tag,filter);
+                t = tag;
             }
-            t = tag;
         }
         // An ID3v2.x header wasn't found.  look for a 1.x header.
         catch (NotATagException ex)
         {
             // look for a 1.x header.
+            if (ch != null)
+                return readTag_v1(ch,start + len);
             in.reset();
             in.mark(0);
             if (len < 128)
@@ -123,6 +175,551 @@ public class Reader
         return t;
     }
 
+    /**
+     * read a tag from a file. See {@link #read(FileChannel)}.
+     * @param f File
+     * @return Tag
+     * @throws IOException
+     */
+    public Tag read(File f)
+        throws IOException
+    {
+        return read(f,null);
+    }
+
+    /**
+     * read only the selected frames of a tag from a file.
+     * @param f File
+     * @param filter FrameFilter null to read every frame.
+     * @return Tag
+     * @throws IOException
+     */
+    public Tag read(File f, FrameFilter filter)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(f);
+        try
+        {
+            return read(in.getChannel(),filter,f);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * read a tag from a file channel. Only the tag region of the file is
+     * read, in one go: onto the heap for tags up to the map threshold, by
+     * mapping it for bigger ones. Headers and frames are parsed directly out
+     * of that buffer rather than being copied through streams. The channel
+     * position is not used or changed.
+     *
+     * Frames are decoded out of the buffer as they are asked for, so a tag
+     * that was mapped must not outlive changes to its file: if the tag region
+     * is overwritten its frames come out as garbage, and if the file is
+     * truncated reading them can crash the VM. Tags read with
+     * {@link #read(File)} are detached by {@link Mp3File} before it rewrites
+     * their file in place; tags read from a channel are not.
+     * @param ch FileChannel
+     * @return Tag
+     * @throws IOException
+     */
+    public Tag read(FileChannel ch)
+        throws IOException
+    {
+        return read(ch,null);
+    }
+
+    /**
+     * read only the selected frames of a tag from a file channel. Frames
+     * that aren't selected are never looked at, and the header walk stops
+     * once every selected frame has been found.
+     * @param ch FileChannel
+     * @param filter FrameFilter null to read every frame.
+     * @return Tag
+     * @throws IOException
+     */
+    public Tag read(FileChannel ch, FrameFilter filter)
+        throws IOException
+    {
+        return read(ch,filter,null);
+    }
+
+    // read a tag from a channel of f. A tag that maps f is remembered so it
+    // can be detached before f is rewritten.
+    private Tag read(FileChannel ch, FrameFilter filter, File f)
+        throws IOException
+    {
+        long len = ch.size();
+        if (len < BasicTagHeader.BASIC_TAG_HEADER_LEN)
+            throw new IOException("Not enough data to contain a valid header.");
+        ByteBuffer head = ParseContext.get().head();
+        readFully(ch,head,0);
+        byte[] b = head.array();
+        Tag t = null;
+        if (b[0] == 'I' && b[1] == 'D' && b[2] == '3')
+        {
+            // read or map the header and the frames; nothing more.
+            long tagLen = Math.min(len,BasicTagHeader.BASIC_TAG_HEADER_LEN
+                + ByteUtils.removeZeroBits(ByteUtils.byte4ToLong(b,6)));
+            ByteBuffer region = null;
+            boolean mapped = tagLen > mapThreshold;
+            if (mapped)
+                region = ch.map(FileChannel.MapMode.READ_ONLY,0,tagLen);
+            else
+            {
+                region = ByteBuffer.allocate((int)tagLen);
+                readFully(ch,region,0);
+                region.flip();
+            }
+            t = readTag_v2(region,filter);
+            if (mapped && f != null && t instanceof Tag_v2)
+                MappedTags.add(f,(Tag_v2)t);
+        }
+        else
+            t = readTag_v1(ch,len);
+        if (verbose) System.out.println("version: " + t.getVersion());
+        return t;
+    }
+
+    /**
+     * read a tag without blocking the calling thread. The file is read with an
+     * AsynchronousFileChannel: first the 10 byte header, then the rest of the
+     * tag in one read of exactly the size the header declares (or the last
+     * bytes of the file, for a 1.x tag). Parsing happens on the thread that
+     * completes the last read.
+     * @param path Path
+     * @return CompletableFuture that completes with the Tag, or exceptionally
+     * with the IOException that reading it would have thrown.
+     */
+    public CompletableFuture<Tag> readAsync(Path path)
+    {
+        return readAsync(path,null);
+    }
+
+    /**
+     * read only the selected frames of a tag without blocking the calling
+     * thread.
+     * @param path Path
+     * @param filter FrameFilter null to read every frame.
+     * @return CompletableFuture
+     */
+    public CompletableFuture<Tag> readAsync(Path path, FrameFilter filter)
+    {
+        CompletableFuture<Tag> result = new CompletableFuture<Tag>();
+        AsynchronousFileChannel ch = null;
+        try
+        {
+            ch = AsynchronousFileChannel.open(path,StandardOpenOption.READ);
+            new AsyncRead(ch,filter,result).start();
+        }
+        catch (IOException ex)
+        {
+            AsyncRead.close(ch);
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * read the tags of many files at once. Files are read on the executor,
+     * at most twice the number of processors at a time.
+     * @param paths Collection
+     * @param executor Executor
+     * @return List one per path, in the same order as paths.
+     * @throws InterruptedIOException if the calling thread is interrupted
+     * while waiting.
+     */
+    public List<ReadResult> readAll(Collection<Path> paths, Executor executor)
+        throws InterruptedIOException
+    {
+        return readAll(paths,executor,null,Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * read the tags of many files at once. Failures don't stop the batch;
+     * they are reported in the result for that file. The calling thread
+     * hands out files no faster than the executor finishes them, so a big
+     * batch doesn't pile up in the executor's queue.
+     * @param paths Collection
+     * @param executor Executor if it rejects a file, the file is read on the
+     * calling thread.
+     * @param filter FrameFilter null to read every frame.
+     * @param maxInFlight int most files being read at any time.
+     * @return List one per path, in the same order as paths.
+     * @throws InterruptedIOException if the calling thread is interrupted
+     * while waiting.
+     */
+    public List<ReadResult> readAll(Collection<Path> paths, Executor executor, final FrameFilter filter, int maxInFlight)
+        throws InterruptedIOException
+    {
+        Batch<ReadResult> batch = new Batch<ReadResult>()
+        {
+            protected ReadResult run(Path path)
+                throws IOException
+            {
+                return new ReadResult(path,read(path.toFile(),filter),null);
+            }
+
+            protected ReadResult failed(Path path, IOException ex)
+            {
+                return new ReadResult(path,null,ex);
+            }
+        };
+        return batch.runAll(paths,executor,maxInFlight);
+    }
+
+    // parse a 2.x tag out of a buffer that holds the whole thing, starting
+    // with the tag header.
+    private static Tag readTag_v2(ByteBuffer region, FrameFilter filter)
+        throws IOException
+    {
+        TagHeader tagHeader = TagHeaderFactory.makeHeader(region);
+        int dataSize = (int)tagHeader.getDataSize();
+        if (region.remaining() < dataSize)
+            throw new IOException("Expected " + dataSize + " bytes.");
+        ByteBuffer data = region.slice();
+        data.limit(dataSize);
+        // unsync if necessary. this can't be done in the mapping, so
+        // decode straight out of it into the heap, or into a temp file
+        // if the tag is big.
+        if (tagHeader.usesUnsynchronization() && dataSize > FrameFactory.getSpillThreshold())
+            data = FrameFactory.spill(new UnsyncDecodingInputStream(new ByteBufferInputStream(data)),dataSize);
+        else if (tagHeader.usesUnsynchronization())
+            data = ByteBuffer.wrap(ByteUtils.sync(data)).asReadOnlyBuffer();
+        Tag_v2 tag = new Tag_v2(tagHeader,data);
+        readFrames(tag,filter);
+        return tag;
+    }
+
+    // read a 1.x tag that ends at a position in a file. It is always the last
+    // 128 bytes, possibly preceded by a 227 byte enhanced ("TAG+") block. Both
+    // are picked up with a single positional read.
+    private static Tag readTag_v1(FileChannel ch, long end)
+        throws IOException
+    {
+        if (end < Tag_v1.TAG_LENGTH)
+            throw new NotATagException();
+        int probe = tailLength(end);
+        ByteBuffer tail = ByteBuffer.allocate(probe);
+        readFully(ch,tail,end - probe);
+        Tag t = makeTag_v1(tail.array());
+        if (verbose) System.out.println("version: " + t.getVersion());
+        return t;
+    }
+
+    // the number of bytes at the end of a file to read when looking for a
+    // 1.x tag.
+    private static int tailLength(long end)
+    {
+        int probe = Tag_v1.TAG_LENGTH;
+        if (end >= Tag_v1.TAG_LENGTH + Tag_v1.ENHANCED_TAG_LENGTH)
+            probe += Tag_v1.ENHANCED_TAG_LENGTH;
+        return probe;
+    }
+
+    // build a 1.x tag out of the last tailLength() bytes of a file.
+    private static Tag makeTag_v1(byte[] b)
+        throws IOException
+    {
+        int probe = b.length;
+        byte[] buf = new byte[Tag_v1.TAG_LENGTH];
+        System.arraycopy(b,probe - Tag_v1.TAG_LENGTH,buf,0,buf.length);
+        byte[] enhanced = null;
+        if (probe > Tag_v1.TAG_LENGTH && Tag_v1.isEnhancedTag(b))
+        {
+            enhanced = new byte[Tag_v1.ENHANCED_TAG_LENGTH];
+            System.arraycopy(b,0,enhanced,0,enhanced.length);
+        }
+        return new Tag_v1(buf,enhanced);
+    }
+
+    // walk the frame headers in the frame data of a tag. Frames are only
+    // recorded (id, offset, size); the tag decodes them when they are asked for.
+    private static void readFrames(Tag_v2 tag, FrameFilter filter)
+        throws IOException
+    {
+        int version = tag.getHeader().getVersion();
+        ByteBuffer data = tag.getFrameData().duplicate();
+        int wanted = filter == null ? 0 : filter.getIds(version).size();
+        if (filter != null && wanted == 0)
+            return; // nothing selected exists in this version.
+        boolean reachedNulls = false;
+        while (data.hasRemaining() && !reachedNulls)
+        {
+            try
+            {
+                FrameHeader fh = FrameFactory.readFrameHeader(data,version);
+                if (fh == null)
+                {
+                    if (verbose)
+                        System.out.println("reached nulls. About " + data.remaining() + " bytes left in tag.");
+                    reachedNulls = true;
+                }
+                else
+                {
+                    if (filter == null)
+                        tag.putFrame(fh,data.position());
+                    else if (filter.accept(fh.getFrameId(),version) && !tag.hasFrame(fh.getFrameId()))
+                    {
+                        tag.putFrame(fh,data.position());
+                        if (--wanted == 0)
+                            break;
+                    }
+                    data.position(data.position() + fh.getSize());
+                }
+            }
+            catch (CorruptFrameException ex)
+            {
+                // something was "off" in the last frame. try to recover?
+                if(verbose)
+                    System.out.println("Corrupt frame; backing out.");
+                reachedNulls = true;
+            }
+        }
+    }
+
+    // read the selected frames of a tag directly from a stream. Everything
+    // else is skipped, and reading stops once all of them have been found.
+    private static void readFrames(Tag_v2 tag, InputStream in, int dataSize, FrameFilter filter)
+        throws IOException
+    {
+        int version = tag.getHeader().getVersion();
+        int wanted = filter.getIds(version).size();
+        // count the raw bytes; frames are read from the decoded ones.
+        CountingInputStream cin = new CountingInputStream(in);
+        InputStream fin = cin;
+        if (tag.getHeader().usesUnsynchronization())
+            fin = new UnsyncDecodingInputStream(cin);
+        while (cin.getCount() < dataSize && wanted > 0)
+        {
+            try
+            {
+                FrameHeader fh = FrameFactory.readFrameHeader(fin,version);
+                if (fh == null)
+                    break; // reached padding.
+                FrameFactory.checkHeader(fh);
+                if (cin.getCount() + fh.getSize() > dataSize)
+                    throw new CorruptFrameException("Invalid frame header size: " + fh.getId() + ", " + fh.getSize());
+                if (filter.accept(fh.getFrameId(),version) && !tag.hasFrame(fh.getFrameId()))
+                {
+                    wanted--;
+                    tag.putFrame(FrameFactory.makeFrame(fh,FrameFactory.readPayload(fin,fh.getSize())));
+                }
+                else
+                {
+                    long skipped = 0;
+                    while (skipped < fh.getSize())
+                    {
+                        long s = fin.skip(fh.getSize() - skipped);
+                        if (s <= 0)
+                            throw new CorruptFrameException("Expected " + fh.getSize() + " bytes.");
+                        skipped += s;
+                    }
+                }
+            }
+            catch (CorruptFrameException ex)
+            {
+                if(verbose)
+                    System.out.println("Corrupt frame; backing out.");
+                break;
+            }
+        }
+    }
+
+    // fill a buffer from a channel starting at an absolute position.
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos)
+        throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            int read = ch.read(buf,pos);
+            if (read < 0)
+                throw new IOException("Expected " + buf.capacity() + " bytes.");
+            pos += read;
+        }
+    }
+
+    // reads the tag of one file for readAsync(). Each read that comes up
+    // short is continued until the buffer is full or the file ends, then the
+    // next step is started from the completion.
+    private static class AsyncRead
+        implements CompletionHandler<Integer,Object>
+    {
+        private static final int HEAD = 0;
+        private static final int TAG_V2 = 1;
+        private static final int TAG_V1 = 2;
+
+        private AsynchronousFileChannel ch = null;
+        private FrameFilter filter = null;
+        private CompletableFuture<Tag> result = null;
+        private long len = 0;
+        private int step = HEAD;
+        private long start = 0;
+        private ByteBuffer buf = null;
+
+        private AsyncRead(AsynchronousFileChannel ch, FrameFilter filter, CompletableFuture<Tag> result)
+        {
+            super();
+            this.ch = ch;
+            this.filter = filter;
+            this.result = result;
+        }
+
+        private void start()
+            throws IOException
+        {
+            len = ch.size();
+            if (len < BasicTagHeader.BASIC_TAG_HEADER_LEN)
+                throw new IOException("Not enough data to contain a valid header.");
+            buf = ByteBuffer.allocate(BasicTagHeader.BASIC_TAG_HEADER_LEN);
+            ch.read(buf,start,null,this);
+        }
+
+        public void completed(Integer read, Object attachment)
+        {
+            if (read.intValue() >= 0 && buf.hasRemaining())
+            {
+                ch.read(buf,start + buf.position(),null,this);
+                return;
+            }
+            try
+            {
+                next();
+            }
+            catch (IOException ex)
+            {
+                failed(ex,attachment);
+            }
+            catch (RuntimeException ex)
+            {
+                failed(ex,attachment);
+            }
+        }
+
+        public void failed(Throwable ex, Object attachment)
+        {
+            close(ch);
+            result.completeExceptionally(ex);
+        }
+
+        // everything wanted by the current step has been read.
+        private void next()
+            throws IOException
+        {
+            if (step == HEAD)
+            {
+                if (buf.hasRemaining())
+                    throw new IOException("Not enough data to contain a valid header.");
+                byte[] b = buf.array();
+                if (b[0] == 'I' && b[1] == 'D' && b[2] == '3')
+                {
+                    // the header is already here. read the rest of the tag
+                    // right after it.
+                    long tagLen = BasicTagHeader.BASIC_TAG_HEADER_LEN
+                        + ByteUtils.removeZeroBits(ByteUtils.byte4ToLong(b,6));
+                    buf = ByteBuffer.allocate((int)Math.min(len,tagLen));
+                    buf.put(b);
+                    step = TAG_V2;
+                }
+                else
+                {
+                    if (len < Tag_v1.TAG_LENGTH)
+                        throw new NotATagException();
+                    int probe = tailLength(len);
+                    buf = ByteBuffer.allocate(probe);
+                    start = len - probe;
+                    step = TAG_V1;
+                }
+                ch.read(buf,start + buf.position(),null,this);
+            }
+            else if (step == TAG_V2)
+            {
+                buf.flip();
+                finish(readTag_v2(buf,filter));
+            }
+            else
+            {
+                if (buf.hasRemaining())
+                    throw new IOException("Expected " + buf.capacity() + " bytes.");
+                finish(makeTag_v1(buf.array()));
+            }
+        }
+
+        private void finish(Tag t)
+        {
+            close(ch);
+            if (verbose) System.out.println("version: " + t.getVersion());
+            result.complete(t);
+        }
+
+        private static void close(AsynchronousFileChannel ch)
+        {
+            try
+            {
+                if (ch != null)
+                    ch.close();
+            }
+            catch (IOException ex)
+            {
+                // nothing more can go wrong with this file.
+            }
+        }
+    }
+
+    // keeps track of how many bytes have been taken from a stream.
+    private static class CountingInputStream
+        extends FilterInputStream
+    {
+        private long count = 0;
+        private long limit = Long.MAX_VALUE;
+
+        private CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        // also acts like the end of the stream after limit bytes.
+        private CountingInputStream(InputStream in, long limit)
+        {
+            super(in);
+            this.limit = limit;
+        }
+
+        public int read()
+            throws IOException
+        {
+            if (count >= limit)
+                return -1;
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            if (count >= limit)
+                return -1;
+            int read = super.read(b,off,(int)Math.min(len,limit - count));
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        public long skip(long n)
+            throws IOException
+        {
+            long skipped = super.skip(Math.min(n,limit - count));
+            count += skipped;
+            return skipped;
+        }
+
+        private long getCount() { return count; }
+    }
+
 //    private static void scan(Reader r, File f)
 //    {
 //        if (f.isDirectory())
@@ -0,0 +1,210 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what a scan found in each file (keyed on path, with the size and
+ * modification time the file had), so the next scan only has to parse files
+ * that have changed.  Files that aren't looked up or recorded during a scan
+ * are dropped when the state is saved, so deleted files don't linger.
+ *
+ * Lookups and records may come from many threads at once.
+ */
+public class ScanState
+{
+    public static final int OK = 0;
+    public static final int NO_TAG = 1;
+    public static final int BAD_VERSION = 2;
+    public static final int CORRUPT = 3;
+    public static final int ERROR = 4;
+
+    private static final int MAGIC = 0x49443353; // "ID3S"
+    private static final int FORMAT = 1;
+
+    // what the last scan saved, and what this scan has confirmed or found.
+    private Map<String,Entry> previous = new ConcurrentHashMap<String,Entry>();
+    private Map<String,Entry> current = new ConcurrentHashMap<String,Entry>();
+
+    /** create an empty state; every file will look new. */
+    public ScanState()
+    {
+        super();
+    }
+
+    /**
+     * load the state saved by an earlier scan.
+     * @param f File
+     * @return ScanState empty if the file doesn't exist.
+     * @throws IOException if the file is unreadable or isn't a scan state.
+     */
+    public static ScanState load(File f)
+        throws IOException
+    {
+        ScanState state = new ScanState();
+        if (!f.exists())
+            return state;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+                throw new IOException("Not a scan state: " + f);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                String path = in.readUTF();
+                Entry e = new Entry(in.readLong(),in.readLong(),in.readByte());
+                state.previous.put(path,e);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return state;
+    }
+
+    /**
+     * save the files looked up or recorded since this state was loaded. The
+     * state is written next to f and then moved over it, so an interrupted
+     * save leaves the old state intact.
+     * @param f File
+     * @throws IOException
+     */
+    public void save(File f)
+        throws IOException
+    {
+        File tmp = Files.createTempFile(f.getAbsoluteFile().getParentFile().toPath(),f.getName() + ".",".tmp").toFile();
+        try
+        {
+            write(tmp);
+            Files.move(tmp.toPath(),f.toPath(),StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            // gone already if it was moved.
+            tmp.delete();
+        }
+    }
+
+    // write the files looked up or recorded so far.
+    private void write(File tmp)
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try
+        {
+            // snapshot, since scans may still be recording.
+            List<Map.Entry<String,Entry>> entries = new ArrayList<Map.Entry<String,Entry>>(current.entrySet());
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++)
+            {
+                Map.Entry<String,Entry> me = entries.get(i);
+                Entry e = me.getValue();
+                out.writeUTF(me.getKey());
+                out.writeLong(e.size);
+                out.writeLong(e.modified);
+                out.writeByte(e.result);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * find out what an earlier scan found in a file, if it hasn't changed
+     * since. A hit is carried over to the next save. Errors are never hits,
+     * so the file is parsed again.
+     * @param path String
+     * @param size long current size of the file.
+     * @param modified long current modification time of the file.
+     * @return the result constant, or -1 if the file is new or has changed.
+     */
+    public int lookup(String path, long size, long modified)
+    {
+        Entry e = previous.get(path);
+        if (e == null || e.size != size || e.modified != modified || e.result == ERROR)
+            return -1;
+        current.put(path,e);
+        return e.result;
+    }
+
+    /**
+     * record what was found in a file. An ERROR (a timeout, a permission
+     * problem, a file still being copied...) says nothing about the file
+     * itself, so it isn't kept and the file is parsed again next time.
+     * @param path String
+     * @param size long size of the file when it was parsed.
+     * @param modified long modification time of the file when it was parsed.
+     * @param result int one of the result constants.
+     */
+    public void record(String path, long size, long modified, int result)
+    {
+        if (result == ERROR)
+            current.remove(path);
+        else
+            current.put(path,new Entry(size,modified,(byte)result));
+    }
+
+    /** @return the number of files that will be saved. */
+    public int size()
+    {
+        return current.size();
+    }
+
+    /** @return the number of files the loaded state knew about but that
+     * haven't been looked up or recorded since. */
+    public int stale()
+    {
+        int count = 0;
+        Iterator<String> it = previous.keySet().iterator();
+        while (it.hasNext())
+        {
+            if (!current.containsKey(it.next()))
+                count++;
+        }
+        return count;
+    }
+
+    private static class Entry
+    {
+        private long size;
+        private long modified;
+        private byte result;
+
+        private Entry(long size, long modified, byte result)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.result = result;
+        }
+    }
+}
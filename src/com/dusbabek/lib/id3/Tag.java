@@ -90,4 +90,8 @@ public interface Tag
     /** @return the stringified version: "1.1", "2.3", etc. */
     public String getVersion();
 
+    /** @return the number of bytes the tag took up in the file it was read
+     * from, headers included. 0 for a tag that wasn't read from a file. */
+    public long originalTagLength();
+
 }
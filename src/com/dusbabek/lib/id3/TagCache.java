@@ -0,0 +1,175 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps recently read tags so that reading the same file again doesn't parse
+ * it again. Entries are keyed on the file's path and are only used while the
+ * file still has the size and modification time it had when it was read.
+ * The cache is bounded by the bytes the tags hold on to (roughly the size of
+ * each tag); the least recently used tags go first.
+ *
+ * Every read gets its own copy of the cached tag, so a caller that changes
+ * its tag (and never writes it) doesn't change what later readers see.
+ * Copies share the frame data they were read from.  {@link Mp3File} reads
+ * through the shared cache, whose size is taken from the id3.cacheBytes
+ * system property (32MB by default; 0 turns it off).
+ */
+public class TagCache
+{
+    private static final boolean verbose = System.getProperty("id3.verbose") != null;
+
+    // a tag holds on to at least this much besides its data.
+    private static final int OVERHEAD = 512;
+
+    private static TagCache shared = new TagCache(Long.getLong("id3.cacheBytes",32L * 1024 * 1024).longValue());
+
+    private long maxBytes = 0;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(16,0.75f,true);
+    private Reader reader = new Reader();
+
+    /**
+     * @param maxBytes long most bytes the cached tags may hold on to.
+     */
+    public TagCache(long maxBytes)
+    {
+        super();
+        this.maxBytes = maxBytes;
+    }
+
+    /** @return the cache used by Mp3File. */
+    public static TagCache getShared() { return shared; }
+
+    /**
+     * get the tag of a file, reading it only if it isn't cached or the file
+     * has changed. Failures (no tag, etc.) aren't cached.
+     * @param f File
+     * @return Tag
+     * @throws IOException
+     */
+    public Tag read(File f)
+        throws IOException
+    {
+        String path = f.getAbsolutePath();
+        long size = f.length();
+        long modified = f.lastModified();
+        synchronized (this)
+        {
+            Entry e = entries.get(path);
+            if (e != null && e.size == size && e.modified == modified)
+            {
+                hits++;
+                return copy(e.tag);
+            }
+            misses++;
+        }
+        // parse outside the lock; two threads missing on the same file just
+        // both read it.
+        Tag tag = reader.read(f);
+        if (maxBytes > 0)
+            put(path,new Entry(size,modified,copy(tag)));
+        return tag;
+    }
+
+    // the cached tag is never handed out; callers get copies of it.
+    private static Tag copy(Tag tag)
+        throws IOException
+    {
+        if (tag instanceof Tag_v2)
+            return ((Tag_v2)tag).copy();
+        else if (tag instanceof Tag_v1)
+            return ((Tag_v1)tag).copy();
+        else
+            return tag;
+    }
+
+    /**
+     * forget a file. Call after changing it.
+     * @param f File
+     */
+    public synchronized void invalidate(File f)
+    {
+        Entry e = entries.remove(f.getAbsolutePath());
+        if (e != null)
+            bytes -= e.weight;
+    }
+
+    /** forget everything. */
+    public synchronized void clear()
+    {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** @return the number of cached tags. */
+    public synchronized int size() { return entries.size(); }
+
+    /** @return the bytes the cached tags hold on to. */
+    public synchronized long getBytes() { return bytes; }
+
+    /** @return how many reads were answered from the cache. */
+    public synchronized long getHits() { return hits; }
+
+    /** @return how many reads had to parse the file. */
+    public synchronized long getMisses() { return misses; }
+
+    // add an entry and evict least recently used ones until it all fits.
+    private synchronized void put(String path, Entry e)
+    {
+        if (e.weight > maxBytes)
+            return;
+        Entry old = entries.put(path,e);
+        if (old != null)
+            bytes -= old.weight;
+        bytes += e.weight;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext())
+        {
+            Entry lru = it.next();
+            it.remove();
+            bytes -= lru.weight;
+            if (verbose)
+                System.out.println("evicted " + lru.weight + " bytes.");
+        }
+    }
+
+    private static class Entry
+    {
+        private long size;
+        private long modified;
+        private Tag tag;
+        private long weight;
+
+        private Entry(long size, long modified, Tag tag)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.tag = tag;
+            weight = OVERHEAD + tag.originalTagLength();
+        }
+    }
+}
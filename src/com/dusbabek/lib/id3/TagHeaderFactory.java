@@ -20,6 +20,7 @@ package com.dusbabek.lib.id3;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Factory class for creating tag headers.
@@ -36,10 +37,45 @@ public class TagHeaderFactory
     public static TagHeader makeHeader(InputStream in)
         throws IOException
     {
-        byte[] b_basicHeader = new byte[BasicTagHeader.BASIC_TAG_HEADER_LEN];
+        byte[] b_basicHeader = ParseContext.get().scratch(BasicTagHeader.BASIC_TAG_HEADER_LEN);
         int read = in.read(b_basicHeader);
         if (read != BasicTagHeader.BASIC_TAG_HEADER_LEN)
             throw new IOException("Expected " + BasicTagHeader.BASIC_TAG_HEADER_LEN + " bytes.");
+        return makeHeader(b_basicHeader,in);
+    }
+
+    /**
+     * create a tag header of the correct version from a buffer. The buffer
+     * position is advanced past the header (and any extended header).
+     * @param buf ByteBuffer
+     * @return TagHeader
+     * @throws IOException
+     */
+    public static TagHeader makeHeader(ByteBuffer buf)
+        throws IOException
+    {
+        if (buf.remaining() < BasicTagHeader.BASIC_TAG_HEADER_LEN)
+            throw new IOException("Expected " + BasicTagHeader.BASIC_TAG_HEADER_LEN + " bytes.");
+        ParseContext ctx = ParseContext.get();
+        byte[] b_basicHeader = ctx.scratch(BasicTagHeader.BASIC_TAG_HEADER_LEN);
+        buf.get(b_basicHeader);
+        // extended headers are rare and small. let them read from the buffer
+        // as though it were a stream.
+        try
+        {
+            return makeHeader(b_basicHeader,ctx.stream(buf));
+        }
+        finally
+        {
+            ctx.unstream();
+        }
+    }
+
+    // create a header from the basic 10 bytes. in supplies any extended header.
+    // the 10 bytes are not kept, so they may be a scratch array.
+    private static TagHeader makeHeader(byte[] b_basicHeader, InputStream in)
+        throws IOException
+    {
         if (b_basicHeader[0] != 'I' || b_basicHeader[1] != 'D' || b_basicHeader[2] != '3')
             throw new NotATagException();
         byte version = b_basicHeader[3];
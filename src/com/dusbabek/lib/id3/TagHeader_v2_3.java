@@ -93,8 +93,22 @@ public class TagHeader_v2_3
     /** {@inheritDoc} */
     public void setDataSize(long l)
     {
-        // tagSize = l - extHeader.len
-        this.setTagSize(l - (extHeader == null ? 0 : extHeader.sizeOf()));
+        // tagSize = l + extHeader.len
+        this.setTagSize(l + (extHeader == null ? 0 : extHeader.sizeOf()));
+    }
+
+    /**
+     * bring the extended header, if there is one, up to date with a tag
+     * about to be written.
+     * @param frames byte[] the frames as they are written.
+     * @param padding long bytes of padding after the frames.
+     */
+    void update(byte[] frames, long padding)
+    {
+        if (extHeader instanceof ExtendedTagHeader_v2_4)
+            ((ExtendedTagHeader_v2_4)extHeader).update(frames,padding);
+        else if (extHeader instanceof ExtendedTagHeader_v2_3)
+            ((ExtendedTagHeader_v2_3)extHeader).update(frames,padding,usesUnsynchronization());
     }
 
     /** @todo what about compression? */
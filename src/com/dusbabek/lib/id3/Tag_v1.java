@@ -34,6 +34,17 @@ import java.io.OutputStream;
  *
  * in v1.1, the genre is 28 bytes. byte 29 is null and byte 30 indicates
  * track (8 bit unsigned int).
+ *
+ * Some taggers put an enhanced block right in front of the tag:
+ *
+ * 'T' 'A' 'G' '+'      4 bytes
+ * song name            60 bytes (characters 31-90)
+ * artist               60 bytes
+ * album                60 bytes
+ * speed                1 byte
+ * genre                30 bytes (free text)
+ * start time           6 bytes
+ * end time             6 bytes
  */
 public class Tag_v1
     implements Tag
@@ -41,6 +52,9 @@ public class Tag_v1
     /** length of a 1.x tag is always 128 bytes. */
     public static final int TAG_LENGTH = 128;
 
+    /** length of the enhanced ("TAG+") block is always 227 bytes. */
+    public static final int ENHANCED_TAG_LENGTH = 227;
+
     /** ID3v1.0 */
     public static final int VERSION_1_0 = 1;
     /** ID3v1.1 */
@@ -54,6 +68,7 @@ public class Tag_v1
     private String comment = null;
     private byte track;
     private byte genre;
+    private byte[] enhanced = null;
 
     /**
      * construct a tag from data parts.
@@ -85,6 +100,82 @@ public class Tag_v1
         genre = data[127];
     }
 
+    /**
+     * construct a tag from data parts and an enhanced block.
+     * @param data byte[]
+     * @param enhanced byte[] the "TAG+" block. may be null.
+     * @throws IOException
+     */
+    public Tag_v1(byte[] data, byte[] enhanced)
+        throws IOException
+    {
+        this(data);
+        if (enhanced == null)
+            return;
+        if (enhanced.length != ENHANCED_TAG_LENGTH)
+            throw new IOException("Expected 227 byte enhanced block.");
+        if (!isEnhancedTag(enhanced))
+            throw new NotATagException();
+        this.enhanced = enhanced;
+        title = extend(title,enhanced,4);
+        artist = extend(artist,enhanced,64);
+        album = extend(album,enhanced,124);
+    }
+
+    // copy another tag's fields.
+    private Tag_v1(Tag_v1 t)
+    {
+        super();
+        version = t.version;
+        title = t.title;
+        artist = t.artist;
+        album = t.album;
+        year = t.year;
+        comment = t.comment;
+        track = t.track;
+        genre = t.genre;
+        enhanced = t.enhanced == null ? null : t.enhanced.clone();
+    }
+
+    /** @return a tag that can be changed without changing this one. */
+    Tag_v1 copy() { return new Tag_v1(this); }
+
+    /**
+     * @param b byte[]
+     * @return true if b starts with an enhanced block identifier.
+     */
+    public static boolean isEnhancedTag(byte[] b)
+    {
+        return b.length >= 4 && b[0] == 'T' && b[1] == 'A' && b[2] == 'G' && b[3] == '+';
+    }
+
+    /** @return true if this tag carries an enhanced block. */
+    public boolean hasEnhanced() { return enhanced != null; }
+
+    /** {@inheritDoc}  */
+    public long originalTagLength()
+    {
+        return TAG_LENGTH + (enhanced == null ? 0 : ENHANCED_TAG_LENGTH);
+    }
+
+    // tack the continuation of a field in the enhanced block onto the field.
+    // The continuation is padded with nulls, which aren't part of it.
+    private static String extend(String s, byte[] enhanced, int offset)
+    {
+        int len = 0;
+        while (len < 60 && enhanced[offset + len] != 0)
+            len++;
+        if (len == 0)
+            return s;
+        return s + new String(enhanced,offset,len);
+    }
+
+    // fields may be longer if there is somewhere to put the rest of them.
+    private int maxLength()
+    {
+        return enhanced == null ? 30 : 90;
+    }
+
     /** @return stringified verion. */
     public String getVersion()
     {
@@ -134,21 +225,21 @@ public class Tag_v1
     /** {@inheritDoc}  */
     public void setTitle(String s)
     {
-        s = s.substring(0,Math.min(30,s.length()));
+        s = s.substring(0,Math.min(maxLength(),s.length()));
         title = s;
     }
 
     /** {@inheritDoc}  */
     public void setArtist(String s)
     {
-        s = s.substring(0,Math.min(30,s.length()));
+        s = s.substring(0,Math.min(maxLength(),s.length()));
         artist = s;
     }
 
     /** {@inheritDoc}  */
     public void setAlbum(String s)
     {
-        s = s.substring(0,Math.min(30,s.length()));
+        s = s.substring(0,Math.min(maxLength(),s.length()));
         album = s;
     }
 
@@ -223,6 +314,37 @@ public class Tag_v1
         out.write(new byte[]{genre});
     }
 
+    /**
+     * write the enhanced block: whatever doesn't fit of the title, artist and
+     * album, plus the enhanced fields that were read. This goes immediately
+     * in front of the 128 bytes written by {@link #write(OutputStream)}.
+     * @param out OutputStream
+     * @throws IOException
+     */
+    public void writeEnhanced(OutputStream out)
+        throws IOException
+    {
+        out.write(new byte[]{'T','A','G','+'});
+        write(out,tail(getTitle()),60);
+        write(out,tail(getArtist()),60);
+        write(out,tail(getAlbum()),60);
+        if (enhanced != null)
+            out.write(enhanced,184,ENHANCED_TAG_LENGTH - 184);
+        else
+            out.write(new byte[ENHANCED_TAG_LENGTH - 184]);
+    }
+
+    // the part of a field that goes in the enhanced block.
+    private static byte[] tail(String s)
+    {
+        byte[] b = s.getBytes();
+        if (b.length <= 30)
+            return new byte[0];
+        byte[] t = new byte[b.length - 30];
+        System.arraycopy(b,30,t,0,t.length);
+        return t;
+    }
+
     // helper for ensuring that the data written fits exactly into the space
     // alotted. it will truncate long data and pad short data.
     private void write(OutputStream out, byte[] data, int size)
@@ -18,11 +18,15 @@ The End
 
 package com.dusbabek.lib.id3;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.List;
+import java.io.File;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Represents a ID3v2.x tag. I'm not going to bother with bits and bytes here,
@@ -37,12 +41,26 @@ import java.io.ByteArrayOutputStream;
  * <optional padding>
  *
  * You should get the idea if you've made it this far.
+ *
+ * Tags that are read are decoded lazily: the reader only records where each
+ * frame's data lives, and a frame is built the first time it is needed.
+ * For big tags that data may be a mapping of the file the tag came from; see
+ * {@link Reader#read(java.nio.channels.FileChannel)} for what that means.
+ * A frame whose data turns out to be corrupt when it is built reads as
+ * missing, the same as if the reader had backed out of it; see
+ * {@link #getCorruptFrames()}.
  */
 public class Tag_v2
     implements Tag
 {
     private TagHeader header = null;
-    private Hashtable frames = new Hashtable();
+    private Hashtable<FrameId,Object> frames = new Hashtable<FrameId,Object>();
+    private volatile ByteBuffer frameData = null;
+    private volatile File mappedFrom = null;
+    private long originalLength = 0;
+    private PaddingPolicy padding = null;
+    // frames dropped by decode(); guarded by frames.
+    private List<CorruptFrameException> corrupt = new ArrayList<CorruptFrameException>();
 
     /** creates a blank tag. Useful for writing to files with no current tag */
     public Tag_v2()
@@ -60,6 +78,88 @@ public class Tag_v2
     {
         super();
         this.header = header;
+        // the header size doesn't count the header itself or a footer.
+        originalLength = BasicTagHeader.BASIC_TAG_HEADER_LEN + header.getTagSize();
+        if (usesFooter())
+            originalLength += BasicTagHeader.BASIC_TAG_HEADER_LEN;
+    }
+
+    /**
+     * creates a tag whose frames will be decoded from a buffer holding the
+     * tag's frame data. See {@link #putFrame(FrameHeader,int)}.
+     * @param header TagHeader
+     * @param frameData ByteBuffer
+     */
+    public Tag_v2(TagHeader header, ByteBuffer frameData)
+    {
+        this(header);
+        this.frameData = frameData;
+    }
+
+    /** @return the tag header. */
+    TagHeader getHeader() { return header; }
+
+    /**
+     * make a tag that can be changed without changing this one. The header
+     * is copied; frames that haven't been decoded yet are shared and decoded
+     * by each tag on its own from the same (never changed) frame data.
+     * @return Tag_v2
+     * @throws IOException
+     */
+    Tag_v2 copy()
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(header.sizeOf());
+        header.write(bout);
+        Tag_v2 t = new Tag_v2(TagHeaderFactory.makeHeader(new ByteArrayInputStream(bout.toByteArray())),frameData);
+        t.originalLength = originalLength;
+        t.padding = padding;
+        synchronized (frames)
+        {
+            t.frames.putAll(frames);
+            t.corrupt.addAll(corrupt);
+        }
+        File f = mappedFrom;
+        if (f != null && t.frameData != null)
+            MappedTags.add(f,t);
+        return t;
+    }
+
+    /** @return the padding policy used when this tag is written. */
+    public PaddingPolicy getPaddingPolicy()
+    {
+        return padding == null ? PaddingPolicy.getDefault() : padding;
+    }
+
+    /**
+     * set the padding policy used when this tag is written.
+     * @param padding PaddingPolicy null for the default policy.
+     */
+    public void setPaddingPolicy(PaddingPolicy padding) { this.padding = padding; }
+
+    // a tag with a footer may not have padding.
+    boolean usesFooter()
+    {
+        return header instanceof TagHeader_v2_4 && ((TagHeader_v2_4)header).usesFooter();
+    }
+
+    /** @return the frame data this tag was read from. May be null. */
+    ByteBuffer getFrameData() { return frameData; }
+
+    /**
+     * note the file that this tag's frame data maps. See {@link MappedTags}.
+     * @param f File
+     */
+    void setMappedFrom(File f) { mappedFrom = f; }
+
+    /**
+     * add or replace a frame without decoding it.
+     * @param fh FrameHeader header that has already been read.
+     * @param offset int absolute offset of the frame's data in the frame data.
+     */
+    void putFrame(FrameHeader fh, int offset)
+    {
+        frames.put(fh.getFrameId(),new FrameRef(fh,offset));
     }
 
     /**
@@ -69,62 +169,128 @@ public class Tag_v2
      */
     public void putFrame(Frame fr)
     {
-        frames.remove(fr.getHeader().getId());
-        frames.put(fr.getHeader().getId(),fr);
+        frames.remove(fr.getHeader().getFrameId());
+        frames.put(fr.getHeader().getFrameId(),fr);
+    }
+
+    /** @return true if there is a frame (decoded or not) for an id. */
+    boolean hasFrame(FrameId id)
+    {
+        return frames.containsKey(id);
+    }
+
+    /**
+     * @return why frames that were read couldn't be decoded when they were
+     * first needed, oldest first. Those frames have been dropped.
+     */
+    public List<CorruptFrameException> getCorruptFrames()
+    {
+        synchronized (frames)
+        {
+            return new ArrayList<CorruptFrameException>(corrupt);
+        }
     }
 
     /** @return frame as specified by id. */
-    private Frame getFrame(String id)
+    private Frame getFrame(FrameId id)
     {
-        return (Frame)frames.get(id);
+        // not every frame type exists in every version.
+        if (id == null)
+            return null;
+        Object o = frames.get(id);
+        if (o instanceof FrameRef)
+            return decode(id,(FrameRef)o);
+        return (Frame)o;
+    }
+
+    // build a frame that has only been recorded so far, and keep it.
+    private Frame decode(FrameId id, FrameRef ref)
+    {
+        ByteBuffer data = frameData;
+        if (data == null)
+        {
+            // detached since the ref was looked up, so it's been decoded.
+            Object o = frames.get(id);
+            return o instanceof Frame ? (Frame)o : null;
+        }
+        ByteBuffer d = data.duplicate();
+        d.limit(ref.offset + ref.header.getSize());
+        d.position(ref.offset);
+        Frame fr = null;
+        CorruptFrameException failed = null;
+        try
+        {
+            fr = FrameFactory.makeFrame(ref.header,d.slice());
+        }
+        catch (IOException ex)
+        {
+            // same as an eager read backing out of a corrupt frame, except
+            // that it is remembered.
+            failed = new CorruptFrameException(id.getId() + ": " + ex.getMessage());
+            failed.initCause(ex);
+        }
+        synchronized (frames)
+        {
+            if (frames.get(id) == ref)
+            {
+                if (fr == null)
+                {
+                    frames.remove(id);
+                    corrupt.add(failed);
+                }
+                else
+                    frames.put(id,fr);
+            }
+        }
+        return fr;
     }
 
     /** {@inheritDoc}  */
     public String getAlbum()
     {
-        TextFrame tf = (TextFrame)getFrame(FrameType.getId(FrameType.ALBUM,header.getVersion()));
+        TextFrame tf = (TextFrame)getFrame(FrameType.getFrameId(FrameType.ALBUM,header.getVersion()));
         return tf == null ? "" : tf.getValue();
     }
 
     /** {@inheritDoc}  */
     public String getArtist()
     {
-        TextFrame tf = (TextFrame)getFrame(FrameType.getId(FrameType.ARTIST,header.getVersion()));
+        TextFrame tf = (TextFrame)getFrame(FrameType.getFrameId(FrameType.ARTIST,header.getVersion()));
         return tf == null ? "" : tf.getValue();
     }
 
     /** {@inheritDoc}  */
     public String getComment()
     {
-        CommentFrame cf = (CommentFrame)getFrame(FrameType.getId(FrameType.COMMENT,header.getVersion()));
+        CommentFrame cf = (CommentFrame)getFrame(FrameType.getFrameId(FrameType.COMMENT,header.getVersion()));
         return cf == null ? "" : cf.getComment();
     }
 
     /** {@inheritDoc}  */
     public String getGenre()
     {
-        TextFrame tf = (TextFrame)getFrame(FrameType.getId(FrameType.GENRE,header.getVersion()));
+        TextFrame tf = (TextFrame)getFrame(FrameType.getFrameId(FrameType.GENRE,header.getVersion()));
         return tf == null ? "" : tf.getValue();
     }
 
     /** {@inheritDoc}  */
     public String getTitle()
     {
-        TextFrame tf = (TextFrame)getFrame(FrameType.getId(FrameType.SONGNAME,header.getVersion()));
+        TextFrame tf = (TextFrame)getFrame(FrameType.getFrameId(FrameType.SONGNAME,header.getVersion()));
         return tf == null ? "" : tf.getValue();
     }
 
     /** {@inheritDoc}  */
     public String getTrack()
     {
-        TextFrame tf = (TextFrame)getFrame(FrameType.getId(FrameType.TRACK,header.getVersion()));
+        TextFrame tf = (TextFrame)getFrame(FrameType.getFrameId(FrameType.TRACK,header.getVersion()));
         return tf == null ? "" : tf.getValue();
     }
 
     /** {@inheritDoc}  */
     public String getYear()
     {
-        TextFrame tf = (TextFrame)getFrame(FrameType.getId(FrameType.YEAR,header.getVersion()));
+        TextFrame tf = (TextFrame)getFrame(FrameType.getFrameId(FrameType.YEAR,header.getVersion()));
         return tf == null ? "" : tf.getValue();
     }
 
@@ -219,27 +385,89 @@ public class Tag_v2
         }
     }
 
+    /**
+     * decode every frame and copy its data out of the buffer the tag was
+     * read from. Do this before overwriting the tag in its file, since the
+     * buffer may be a mapping of it.
+     */
+    void detach()
+    {
+        Object[] ids = frames.keySet().toArray();
+        for (int i = 0; i < ids.length; i++)
+        {
+            Frame fr = getFrame((FrameId)ids[i]);
+            if (fr != null)
+                fr.detach();
+        }
+        frameData = null;
+        mappedFrom = null;
+    }
+
     /** {@inheritDoc}  */
     public void write(OutputStream out)
         throws IOException
     {
-        // convert all frames to a byte array.
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        for (Iterator i = frames.values().iterator(); i.hasNext();)
+        byte[] frameBytes = encodeFrames();
+        long pad = usesFooter() ? 0 : getPaddingPolicy().padding(header.sizeOf(),frameBytes.length);
+        out.write(encode(frameBytes,pad));
+        byte[] zeros = new byte[(int)Math.min(pad,4096)];
+        while (pad > 0)
         {
-            Frame fr = (Frame)i.next();
-            fr.write(bout);
+            int len = (int)Math.min(pad,zeros.length);
+            out.write(zeros,0,len);
+            pad -= len;
         }
-        bout.flush();
-        byte[] frameBytes = bout.toByteArray();
-        bout.close();
+    }
+
+    /**
+     * encode the header and frames. The header counts padding bytes that the
+     * caller writes after them, as does an extended header that records the
+     * padding or a crc.
+     * @param frameBytes byte[] from {@link #encodeFrames()}.
+     * @param padding long
+     * @return byte[]
+     * @throws IOException
+     */
+    byte[] encode(byte[] frameBytes, long padding)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(header.sizeOf() + frameBytes.length);
+        header.setDataSize(frameBytes.length + padding);
+        if (header instanceof TagHeader_v2_3)
+            ((TagHeader_v2_3)header).update(frameBytes,padding);
+        header.write(bout);
+        bout.write(frameBytes);
+        return bout.toByteArray();
+    }
+
+    /**
+     * @return all frames as they are written, unsynchronized if the header
+     * says so.
+     * @throws IOException
+     */
+    byte[] encodeFrames()
+        throws IOException
+    {
+        // convert all frames to a byte array, unsynchronizing on the way
+        // if necessary.
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        OutputStream fout = bout;
         if (header.usesUnsynchronization())
-            frameBytes = ByteUtils.unsync(frameBytes);
-        header.setDataSize(frameBytes.length);
-        header.write(out);
-        out.write(frameBytes);
+            fout = new UnsyncEncodingOutputStream(bout);
+        Object[] ids = frames.keySet().toArray();
+        for (int i = 0; i < ids.length; i++)
+        {
+            Frame fr = getFrame((FrameId)ids[i]);
+            if (fr != null)
+                fr.write(fout);
+        }
+        fout.close();
+        return bout.toByteArray();
     }
 
+    /** {@inheritDoc}  */
+    public long originalTagLength() { return originalLength; }
+
     /** {@inheritDoc}  */
     public String getVersion()
     {
@@ -251,5 +479,18 @@ public class Tag_v2
             default: return "Unkown/Invalid";
         }
     }
+
+    // a frame that has been seen but not decoded.
+    private static class FrameRef
+    {
+        private FrameHeader header = null;
+        private int offset = 0;
+
+        private FrameRef(FrameHeader header, int offset)
+        {
+            this.header = header;
+            this.offset = offset;
+        }
+    }
 }
 
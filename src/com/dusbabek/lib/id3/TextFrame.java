@@ -19,6 +19,7 @@ The End
 package com.dusbabek.lib.id3;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Specialized frame.
@@ -54,7 +55,23 @@ public class TextFrame
         throws IOException
     {
         super(header, data);
-        value = new String(getData(),1,getData().length-1);
+        // an empty frame doesn't even have the encoding byte.
+        value = data.length == 0 ? "" : new String(getData(),1,getData().length-1);
+    }
+
+    /**
+     * construct a text frame from a buffer of raw data. The text is decoded
+     * straight out of the buffer.
+     * @param header FrameHeader
+     * @param data ByteBuffer
+     * @throws IOException
+     */
+    public TextFrame(FrameHeader header, ByteBuffer data)
+        throws IOException
+    {
+        super(header, data);
+        // an empty frame doesn't even have the encoding byte.
+        value = data.remaining() == 0 ? "" : ByteUtils.toString(data,data.position() + 1,data.remaining() - 1);
     }
 
     /** @return text value (minus null padding) */
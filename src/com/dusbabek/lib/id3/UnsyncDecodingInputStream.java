@@ -0,0 +1,141 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Undoes unsynchronization as bytes are read: every $00 that follows a $FF is
+ * dropped.  Nothing is read ahead, so the underlying stream is never consumed
+ * past the last byte returned.
+ */
+public class UnsyncDecodingInputStream
+    extends FilterInputStream
+{
+    private boolean ff = false;
+
+    /**
+     * wrap a stream of unsynchronized data.
+     * @param in InputStream
+     */
+    public UnsyncDecodingInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+    /** {@inheritDoc}  */
+    public int read()
+        throws IOException
+    {
+        while (true)
+        {
+            int b = in.read();
+            if (b < 0)
+                return b;
+            if (ff && b == 0)
+            {
+                // a stuffed byte.
+                ff = false;
+                continue;
+            }
+            ff = b == 0xff;
+            return b;
+        }
+    }
+
+    /** {@inheritDoc}  */
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (len == 0)
+            return 0;
+        while (true)
+        {
+            int read = in.read(b,off,len);
+            if (read <= 0)
+                return read;
+            // squeeze out the stuffed bytes in place, moving whole runs.
+            int end = off + read;
+            int pos = off;
+            int run = off;
+            if (ff && b[off] == 0)
+                run = off + 1;
+            int i = ByteUtils.indexOfFF(b,run,end);
+            while (i >= 0 && i + 1 < end)
+            {
+                if (b[i + 1] == 0)
+                {
+                    System.arraycopy(b,run,b,pos,i + 1 - run);
+                    pos += i + 1 - run;
+                    run = i + 2;
+                    i++;
+                }
+                i = ByteUtils.indexOfFF(b,i + 1,end);
+            }
+            System.arraycopy(b,run,b,pos,end - run);
+            pos += end - run;
+            // a trailing ff pairs with the first byte of the next read. a
+            // trailing stuffed byte (ff 00) doesn't.
+            ff = run < end && b[end - 1] == (byte)0xff;
+            // only possible if all we read was a single stuffed byte.
+            if (pos > off)
+                return pos - off;
+        }
+    }
+
+    /** {@inheritDoc}  */
+    public long skip(long n)
+        throws IOException
+    {
+        // the decoded length isn't known without decoding.
+        byte[] buf = new byte[(int)Math.min(n,512)];
+        long skipped = 0;
+        while (skipped < n)
+        {
+            int read = read(buf,0,(int)Math.min(buf.length,n - skipped));
+            if (read < 0)
+                break;
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    /** {@inheritDoc}  */
+    public int available()
+        throws IOException
+    {
+        // every stuffed byte shrinks the decoded data, so only promise one.
+        return Math.min(in.available(),1);
+    }
+
+    /** {@inheritDoc}  */
+    public boolean markSupported() { return false; }
+
+    /** {@inheritDoc}  */
+    public void mark(int readlimit) { }
+
+    /** {@inheritDoc}  */
+    public void reset()
+        throws IOException
+    {
+        throw new IOException("mark/reset not supported");
+    }
+}
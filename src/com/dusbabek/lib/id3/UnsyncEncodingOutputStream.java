@@ -0,0 +1,102 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Applies unsynchronization as bytes are written: a $00 is inserted after
+ * every $FF that is followed by $00 or by a byte of the form %111xxxxx, and
+ * after a $FF at the very end.  Call {@link #finish()} (or close()) when done.
+ */
+public class UnsyncEncodingOutputStream
+    extends FilterOutputStream
+{
+    private boolean ff = false;
+
+    /**
+     * wrap a stream that should receive unsynchronized data.
+     * @param out OutputStream
+     */
+    public UnsyncEncodingOutputStream(OutputStream out)
+    {
+        super(out);
+    }
+
+    /** {@inheritDoc}  */
+    public void write(int b)
+        throws IOException
+    {
+        b &= 0xff;
+        if (ff && (b == 0 || (b & 0xe0) == 0xe0))
+            out.write(0);
+        ff = b == 0xff;
+        out.write(b);
+    }
+
+    /** {@inheritDoc}  */
+    public void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        // write runs between insertion points in one go.
+        if (len == 0)
+            return;
+        int end = off + len;
+        int run = off;
+        if (ff && (b[off] == 0 || (b[off] & 0xe0) == 0xe0))
+            out.write(0);
+        int i = ByteUtils.indexOfFF(b,off,end);
+        while (i >= 0 && i + 1 < end)
+        {
+            if (b[i + 1] == 0 || (b[i + 1] & 0xe0) == 0xe0)
+            {
+                out.write(b,run,i + 1 - run);
+                out.write(0);
+                run = i + 1;
+            }
+            i = ByteUtils.indexOfFF(b,i + 1,end);
+        }
+        out.write(b,run,end - run);
+        ff = b[end - 1] == (byte)0xff;
+    }
+
+    /**
+     * write the trailing $00 if the last byte was $FF. Doesn't close the
+     * underlying stream.
+     * @throws IOException
+     */
+    public void finish()
+        throws IOException
+    {
+        if (ff)
+            out.write(0);
+        ff = false;
+        out.flush();
+    }
+
+    /** {@inheritDoc}  */
+    public void close()
+        throws IOException
+    {
+        finish();
+        super.close();
+    }
+}
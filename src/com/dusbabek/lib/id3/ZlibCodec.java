@@ -0,0 +1,177 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and expands frame data in the zlib format that ID3v2 calls for.
+ * Inflaters and Deflaters hold native memory until they are ended, so a few
+ * are kept around and shared instead of making new ones for every frame.
+ * Input is taken straight from a ByteBuffer so frames sitting in a mapped
+ * or direct buffer don't have to be copied into an array first.
+ */
+public class ZlibCodec
+{
+    private static final boolean verbose = System.getProperty("id3.verbose") != null;
+
+    // how many of each to hold on to.
+    private static final int POOL_SIZE = 8;
+    private static final Inflater[] inflaters = new Inflater[POOL_SIZE];
+    private static final Deflater[] deflaters = new Deflater[POOL_SIZE];
+    private static int inflaterCount = 0;
+    private static int deflaterCount = 0;
+
+    private ZlibCodec()
+    {
+        super();
+    }
+
+    /**
+     * expand zlib data.
+     * @param in ByteBuffer compressed bytes between position and limit. The
+     * position is left after the bytes that were used.
+     * @param size long expected uncompressed size.
+     * @return byte[] uncompressed data, exactly size bytes.
+     * @throws IOException if the data is corrupt or isn't size bytes long.
+     */
+    public static byte[] inflate(ByteBuffer in, long size)
+        throws IOException
+    {
+        if (size < 0 || size > Integer.MAX_VALUE)
+            throw new CorruptFrameException("Invalid uncompressed size: " + size);
+        byte[] out = new byte[(int)size];
+        Inflater inf = takeInflater();
+        try
+        {
+            inf.setInput(in);
+            int read = 0;
+            while (!inf.finished())
+            {
+                int n = 0;
+                // once out is full, the data should end without another byte
+                // (asking for none at all wouldn't find its end).
+                if (read < out.length)
+                    n = inf.inflate(out,read,out.length - read);
+                else if (inf.inflate(new byte[1]) > 0)
+                    throw new CorruptFrameException("Compressed data expands to more than " + size + " bytes.");
+                read += n;
+                if (n == 0 && !inf.finished())
+                    throw new CorruptFrameException("Compressed data ended after " + read + " of " + size + " bytes.");
+            }
+            if (read != out.length)
+                throw new CorruptFrameException("Expected " + size + " bytes, got " + read + ".");
+            return out;
+        }
+        catch (DataFormatException ex)
+        {
+            throw new CorruptFrameException("Bad compressed data: " + ex.getMessage());
+        }
+        finally
+        {
+            giveInflater(inf);
+        }
+    }
+
+    /**
+     * compress data using zlib.
+     * @param in ByteBuffer bytes between position and limit. All of them are
+     * used.
+     * @return byte[] compressed data.
+     */
+    public static byte[] deflate(ByteBuffer in)
+    {
+        Deflater def = takeDeflater();
+        try
+        {
+            def.setInput(in);
+            def.finish();
+            // incompressible data grows a little.
+            byte[] out = new byte[in.remaining() + (in.remaining() >> 8) + 64];
+            int len = 0;
+            while (!def.finished())
+            {
+                if (len == out.length)
+                {
+                    byte[] bigger = new byte[out.length * 2];
+                    System.arraycopy(out,0,bigger,0,len);
+                    out = bigger;
+                }
+                len += def.deflate(out,len,out.length - len);
+            }
+            if (verbose)
+                System.out.println("deflated " + def.getBytesRead() + " to " + len + " bytes.");
+            if (len == out.length)
+                return out;
+            byte[] b = new byte[len];
+            System.arraycopy(out,0,b,0,len);
+            return b;
+        }
+        finally
+        {
+            giveDeflater(def);
+        }
+    }
+
+    private static synchronized Inflater takeInflater()
+    {
+        if (inflaterCount == 0)
+            return new Inflater();
+        Inflater inf = inflaters[--inflaterCount];
+        inflaters[inflaterCount] = null;
+        return inf;
+    }
+
+    // reset and keep it, or free its native memory if the pool is full.
+    private static synchronized void giveInflater(Inflater inf)
+    {
+        if (inflaterCount < POOL_SIZE)
+        {
+            inf.reset();
+            inflaters[inflaterCount++] = inf;
+        }
+        else
+            inf.end();
+    }
+
+    private static synchronized Deflater takeDeflater()
+    {
+        if (deflaterCount == 0)
+            return new Deflater();
+        Deflater def = deflaters[--deflaterCount];
+        deflaters[deflaterCount] = null;
+        return def;
+    }
+
+    // reset and keep it, or free its native memory if the pool is full.
+    private static synchronized void giveDeflater(Deflater def)
+    {
+        if (deflaterCount < POOL_SIZE)
+        {
+            def.reset();
+            deflaters[deflaterCount++] = def;
+        }
+        else
+            def.end();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3.catalog;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A catalog written by {@link CatalogWriter}, mapped into memory and queried
+ * in place.  Nothing is loaded onto the heap when it is opened; strings are
+ * only decoded when they are asked for, and finding the files that have a
+ * field value compares dictionary ids rather than strings.  Files are
+ * numbered from 0 in the order they were added.
+ *
+ * A catalog never changes once it has been opened, so it may be queried from
+ * many threads at once.
+ */
+public class Catalog
+{
+    /** string field: the path the file was added under. */
+    public static final int PATH = 0;
+    /** string field. */
+    public static final int TITLE = 1;
+    /** string field. */
+    public static final int ARTIST = 2;
+    /** string field. */
+    public static final int ALBUM = 3;
+    /** string field. */
+    public static final int YEAR = 4;
+    /** string field. */
+    public static final int TRACK = 5;
+    /** string field: the genre as the tag has it. */
+    public static final int GENRE = 6;
+    /** string field. */
+    public static final int COMMENT = 7;
+
+    static final int STRING_FIELDS = 8;
+    static final int MAGIC = 0x49443343; // "ID3C"
+    static final int FORMAT = 1;
+    static final int HEADER_LEN = 32;
+    static final int RECORD_LEN = 48;
+
+    // offsets of the non-string fields in a record.
+    private static final int VERSION = 32;
+    private static final int GENRE_CODE = 33;
+    private static final int TAG_LENGTH = 36;
+    private static final int AUDIO_OFFSET = 40;
+
+    private ByteBuffer map = null;
+    private int recordCount = 0;
+    private int stringCount = 0;
+    private int records = 0;
+    private int offsets = 0;
+    private int blob = 0;
+
+    private Catalog(ByteBuffer map)
+        throws IOException
+    {
+        super();
+        this.map = map;
+        if (map.capacity() < HEADER_LEN || map.getInt(0) != MAGIC)
+            throw new IOException("Not a tag catalog.");
+        if (map.getInt(4) != FORMAT)
+            throw new IOException("Unsupported catalog format " + map.getInt(4));
+        recordCount = map.getInt(8);
+        stringCount = map.getInt(12);
+        offsets = (int)map.getLong(16);
+        records = (int)map.getLong(24);
+        blob = offsets + 4 * (stringCount + 1);
+        if ((long)records + (long)recordCount * RECORD_LEN > offsets || blob > map.capacity())
+            throw new IOException("Truncated tag catalog.");
+    }
+
+    /**
+     * map a catalog file.
+     * @param f File
+     * @return Catalog
+     * @throws IOException if the file isn't a catalog.
+     */
+    public static Catalog open(File f)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(f,"r");
+        try
+        {
+            FileChannel ch = raf.getChannel();
+            // the mapping outlives the channel.
+            return new Catalog(ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size()));
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /** @return the number of files in the catalog. */
+    public int size() { return recordCount; }
+
+    /**
+     * @param file int
+     * @param field int one of the string field constants.
+     * @return the value of a string field.
+     */
+    public String get(int file, int field)
+    {
+        return getString(getStringId(file,field));
+    }
+
+    /**
+     * @param file int
+     * @param field int one of the string field constants.
+     * @return the dictionary id of a string field.
+     */
+    public int getStringId(int file, int field)
+    {
+        if (field < 0 || field >= STRING_FIELDS)
+            throw new IllegalArgumentException("Not a string field: " + field);
+        return map.getInt(record(file) + 4 * field);
+    }
+
+    /** @return the tag version, "1.1", "2.3", etc. */
+    public String getVersion(int file)
+    {
+        int v = map.get(record(file) + VERSION) & 0xff;
+        return (v >> 4) + "." + (v & 0x0f);
+    }
+
+    /** @return the 1.x genre byte (0-254) or 255 if there isn't one. */
+    public int getGenreCode(int file)
+    {
+        return map.get(record(file) + GENRE_CODE) & 0xff;
+    }
+
+    /** @return the bytes the tag took up in the file. */
+    public long getTagLength(int file)
+    {
+        return map.getInt(record(file) + TAG_LENGTH) & 0xffffffffL;
+    }
+
+    /** @return where the audio starts in the file. */
+    public long getAudioOffset(int file)
+    {
+        return map.getLong(record(file) + AUDIO_OFFSET);
+    }
+
+    /** @return the number of distinct strings. */
+    public int getStringCount() { return stringCount; }
+
+    /**
+     * @param id int dictionary id.
+     * @return String
+     */
+    public String getString(int id)
+    {
+        if (id < 0 || id >= stringCount)
+            throw new IndexOutOfBoundsException("No string " + id);
+        int start = map.getInt(offsets + 4 * id);
+        int end = map.getInt(offsets + 4 * id + 4);
+        byte[] b = new byte[end - start];
+        ByteBuffer d = map.duplicate();
+        d.position(blob + start);
+        d.get(b);
+        try
+        {
+            return new String(b,"UTF-8");
+        }
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new RuntimeException(ex.getMessage());
+        }
+    }
+
+    /**
+     * find a string in the dictionary.
+     * @param s String
+     * @return its id, or -1 if no file has that value in any field.
+     */
+    public int findString(String s)
+    {
+        int lo = 0;
+        int hi = stringCount - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int c = getString(mid).compareTo(s);
+            if (c == 0)
+                return mid;
+            else if (c < 0)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * find the files that have a value in a field.
+     * @param field int one of the string field constants.
+     * @param value String exact match.
+     * @return int[] file numbers, in order.
+     */
+    public int[] find(int field, String value)
+    {
+        int id = findString(value);
+        if (id < 0)
+            return new int[0];
+        int[] found = new int[16];
+        int count = 0;
+        for (int i = 0; i < recordCount; i++)
+        {
+            if (getStringId(i,field) == id)
+            {
+                if (count == found.length)
+                {
+                    int[] bigger = new int[found.length * 2];
+                    System.arraycopy(found,0,bigger,0,count);
+                    found = bigger;
+                }
+                found[count++] = i;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(found,0,result,0,count);
+        return result;
+    }
+
+    // encode "2.3" as 0x23.
+    static byte encodeVersion(String version)
+    {
+        int dot = version.indexOf('.');
+        return (byte)((Integer.parseInt(version.substring(0,dot)) << 4)
+            | Integer.parseInt(version.substring(dot + 1)));
+    }
+
+    private int record(int file)
+    {
+        if (file < 0 || file >= recordCount)
+            throw new IndexOutOfBoundsException("No file " + file);
+        return records + file * RECORD_LEN;
+    }
+}
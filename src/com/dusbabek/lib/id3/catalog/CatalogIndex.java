@@ -0,0 +1,233 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3.catalog;
+
+import java.util.BitSet;
+
+/**
+ * Inverted indexes over a {@link Catalog}: a posting list of file numbers
+ * for every artist and album, a bitmap for each of the 256 1.x genre bytes,
+ * and the files sorted by year for range lookups.  Building them is one pass
+ * over the mapped records; the indexes themselves are small int arrays.
+ *
+ * Every lookup returns a new BitSet of file numbers, so results can be
+ * combined with BitSet.and()/or() directly, or through {@link Query}.
+ */
+public class CatalogIndex
+{
+    private Catalog catalog = null;
+
+    // postings for artist and album: the files with string id s are
+    // files[start[s]] .. files[start[s + 1] - 1], in ascending order.
+    private int[] artistStart = null;
+    private int[] artistFiles = null;
+    private int[] albumStart = null;
+    private int[] albumFiles = null;
+
+    private BitSet[] genres = new BitSet[256];
+
+    // files that have a year, sorted by year.
+    private int[] years = null;
+    private int[] yearFiles = null;
+
+    /**
+     * index a catalog.
+     * @param catalog Catalog
+     */
+    public CatalogIndex(Catalog catalog)
+    {
+        super();
+        this.catalog = catalog;
+        int n = catalog.size();
+        int strings = catalog.getStringCount();
+
+        artistStart = new int[strings + 1];
+        albumStart = new int[strings + 1];
+        artistFiles = new int[n];
+        albumFiles = new int[n];
+        post(Catalog.ARTIST,artistStart,artistFiles);
+        post(Catalog.ALBUM,albumStart,albumFiles);
+
+        for (int i = 0; i < n; i++)
+        {
+            int g = catalog.getGenreCode(i);
+            if (genres[g] == null)
+                genres[g] = new BitSet(n);
+            genres[g].set(i);
+        }
+
+        // years are few; bucket the files by year, then lay them out.
+        int[] yearOf = new int[n];
+        int withYear = 0;
+        for (int i = 0; i < n; i++)
+        {
+            yearOf[i] = parseYear(catalog.get(i,Catalog.YEAR));
+            if (yearOf[i] >= 0)
+                withYear++;
+        }
+        years = new int[withYear];
+        yearFiles = new int[withYear];
+        int[] counts = new int[10000 + 1];
+        for (int i = 0; i < n; i++)
+        {
+            if (yearOf[i] >= 0)
+                counts[yearOf[i] + 1]++;
+        }
+        for (int y = 1; y < counts.length; y++)
+            counts[y] += counts[y - 1];
+        for (int i = 0; i < n; i++)
+        {
+            if (yearOf[i] >= 0)
+            {
+                int at = counts[yearOf[i]]++;
+                years[at] = yearOf[i];
+                yearFiles[at] = i;
+            }
+        }
+    }
+
+    /** @return the catalog being indexed. */
+    public Catalog getCatalog() { return catalog; }
+
+    /** @return the files by an artist. */
+    public BitSet artist(String artist)
+    {
+        return postings(artist,artistStart,artistFiles);
+    }
+
+    /** @return the files from an album. */
+    public BitSet album(String album)
+    {
+        return postings(album,albumStart,albumFiles);
+    }
+
+    /**
+     * @param code int 1.x genre byte, see {@link com.dusbabek.lib.id3.Genre}.
+     * 255 finds the files without a 1.x genre.
+     * @return the files in a genre.
+     */
+    public BitSet genre(int code)
+    {
+        BitSet b = genres[code & 0xff];
+        return b == null ? new BitSet() : (BitSet)b.clone();
+    }
+
+    /**
+     * @param genre String a genre name, number, or "(n)" reference.
+     * @return the files in a genre.
+     */
+    public BitSet genre(String genre)
+    {
+        return genre(CatalogWriter.genreCode(genre));
+    }
+
+    /**
+     * @param from int first year, inclusive.
+     * @param to int last year, inclusive.
+     * @return the files from a range of years.
+     */
+    public BitSet years(int from, int to)
+    {
+        BitSet b = new BitSet(catalog.size());
+        for (int i = lowerBound(from); i < years.length && years[i] <= to; i++)
+            b.set(yearFiles[i]);
+        return b;
+    }
+
+    /** @return every file in the catalog. */
+    public BitSet all()
+    {
+        BitSet b = new BitSet(catalog.size());
+        b.set(0,catalog.size());
+        return b;
+    }
+
+    /**
+     * @param b BitSet
+     * @return the file numbers in a result, in order.
+     */
+    public static int[] toFiles(BitSet b)
+    {
+        int[] files = new int[b.cardinality()];
+        int j = 0;
+        for (int i = b.nextSetBit(0); i >= 0; i = b.nextSetBit(i + 1))
+            files[j++] = i;
+        return files;
+    }
+
+    /**
+     * the year a year field starts with: "1959", "1959-08-17", etc.
+     * @param s String
+     * @return int or -1 if there isn't one.
+     */
+    public static int parseYear(String s)
+    {
+        if (s.length() < 4)
+            return -1;
+        int y = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            y = y * 10 + (c - '0');
+        }
+        return y;
+    }
+
+    // counting sort the files by the string id of a field.
+    private void post(int field, int[] start, int[] files)
+    {
+        int n = catalog.size();
+        for (int i = 0; i < n; i++)
+            start[catalog.getStringId(i,field) + 1]++;
+        for (int s = 1; s < start.length; s++)
+            start[s] += start[s - 1];
+        int[] next = start.clone();
+        for (int i = 0; i < n; i++)
+            files[next[catalog.getStringId(i,field)]++] = i;
+    }
+
+    private BitSet postings(String value, int[] start, int[] files)
+    {
+        BitSet b = new BitSet(catalog.size());
+        int id = catalog.findString(value);
+        if (id < 0)
+            return b;
+        for (int i = start[id]; i < start[id + 1]; i++)
+            b.set(files[i]);
+        return b;
+    }
+
+    // first index into years whose year is >= y.
+    private int lowerBound(int y)
+    {
+        int lo = 0;
+        int hi = years.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (years[mid] < y)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
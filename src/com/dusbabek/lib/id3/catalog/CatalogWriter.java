@@ -0,0 +1,220 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3.catalog;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.dusbabek.lib.id3.Genre;
+import com.dusbabek.lib.id3.NotATagException;
+import com.dusbabek.lib.id3.Reader;
+import com.dusbabek.lib.id3.Tag;
+
+/**
+ * Collects the core fields of many tags and writes them out as a catalog
+ * that {@link Catalog} can query.  Every distinct string is stored once, in
+ * a sorted dictionary, and each file gets a fixed width record of dictionary
+ * ids and numbers:
+ *
+ * <pre>
+ * header   magic "ID3C", format, record count, string count,
+ *          offset of the dictionary, offset of the records.
+ * records  8 string ids (path, title, artist, album, year, track, genre,
+ *          comment), version, genre byte, 2 unused, tag length, audio offset.
+ * strings  string count + 1 offsets into the UTF-8 bytes that follow.
+ * </pre>
+ *
+ * All numbers are big-endian.
+ */
+public class CatalogWriter
+{
+    private List<Record> records = new ArrayList<Record>();
+
+    public CatalogWriter()
+    {
+        super();
+    }
+
+    /**
+     * add the tag of a file.
+     * @param path String how the file should be known in the catalog.
+     * @param tag Tag
+     */
+    public void add(String path, Tag tag)
+    {
+        Record rec = new Record();
+        rec.strings[Catalog.PATH] = path;
+        rec.strings[Catalog.TITLE] = clean(tag.getTitle());
+        rec.strings[Catalog.ARTIST] = clean(tag.getArtist());
+        rec.strings[Catalog.ALBUM] = clean(tag.getAlbum());
+        rec.strings[Catalog.YEAR] = clean(tag.getYear());
+        rec.strings[Catalog.TRACK] = clean(tag.getTrack());
+        rec.strings[Catalog.GENRE] = clean(tag.getGenre());
+        rec.strings[Catalog.COMMENT] = clean(tag.getComment());
+        rec.version = Catalog.encodeVersion(tag.getVersion());
+        rec.genre = (byte)genreCode(rec.strings[Catalog.GENRE]);
+        rec.tagLength = tag.originalTagLength();
+        // a 1.x tag is at the end of the file.
+        rec.audioOffset = tag.getVersion().startsWith("2.") ? tag.originalTagLength() : 0;
+        records.add(rec);
+    }
+
+    /**
+     * read a file and add its tag.
+     * @param f File
+     * @param reader Reader
+     * @return false if the file has no tag.
+     * @throws IOException if the tag couldn't be read.
+     */
+    public boolean add(File f, Reader reader)
+        throws IOException
+    {
+        try
+        {
+            add(f.getPath(),reader.read(f));
+            return true;
+        }
+        catch (NotATagException ex)
+        {
+            return false;
+        }
+    }
+
+    /** @return how many files have been added. */
+    public int size() { return records.size(); }
+
+    /**
+     * write the catalog.
+     * @param f File
+     * @throws IOException
+     */
+    public void write(File f)
+        throws IOException
+    {
+        // sort and number the distinct strings.
+        Map<String,Integer> ids = new TreeMap<String,Integer>();
+        for (int i = 0; i < records.size(); i++)
+        {
+            Record rec = records.get(i);
+            for (int j = 0; j < rec.strings.length; j++)
+                ids.put(rec.strings[j],null);
+        }
+        byte[][] utf = new byte[ids.size()][];
+        int blobLen = 0;
+        Iterator<Map.Entry<String,Integer>> it = ids.entrySet().iterator();
+        for (int i = 0; it.hasNext(); i++)
+        {
+            Map.Entry<String,Integer> e = it.next();
+            e.setValue(Integer.valueOf(i));
+            utf[i] = e.getKey().getBytes("UTF-8");
+            blobLen += utf[i].length;
+        }
+
+        long recordsOffset = Catalog.HEADER_LEN;
+        long stringsOffset = recordsOffset + (long)records.size() * Catalog.RECORD_LEN;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),65536));
+        try
+        {
+            out.writeInt(Catalog.MAGIC);
+            out.writeInt(Catalog.FORMAT);
+            out.writeInt(records.size());
+            out.writeInt(utf.length);
+            out.writeLong(stringsOffset);
+            out.writeLong(recordsOffset);
+            for (int i = 0; i < records.size(); i++)
+            {
+                Record rec = records.get(i);
+                for (int j = 0; j < rec.strings.length; j++)
+                    out.writeInt(ids.get(rec.strings[j]).intValue());
+                out.writeByte(rec.version);
+                out.writeByte(rec.genre);
+                out.writeShort(0);
+                out.writeInt((int)rec.tagLength);
+                out.writeLong(rec.audioOffset);
+            }
+            int offset = 0;
+            for (int i = 0; i < utf.length; i++)
+            {
+                out.writeInt(offset);
+                offset += utf[i].length;
+            }
+            out.writeInt(offset);
+            for (int i = 0; i < utf.length; i++)
+                out.write(utf[i]);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * work out the 1.x genre byte for a genre string. Understands numbers,
+     * "(17)" style references and genre names.
+     * @param genre String
+     * @return int 0-254, or 255 if the genre isn't a 1.x genre.
+     */
+    public static int genreCode(String genre)
+    {
+        String s = genre.trim();
+        if (s.startsWith("(") && s.indexOf(')') > 0)
+            s = s.substring(1,s.indexOf(')'));
+        try
+        {
+            int code = Integer.parseInt(s);
+            return code >= 0 && code < 255 ? code : 255;
+        }
+        catch (NumberFormatException ex)
+        {
+            // try it as a name.
+        }
+        try
+        {
+            return Genre.getByte(s) & 0xff;
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return 255;
+        }
+    }
+
+    // fixed width 1.x fields come padded with spaces or nulls.
+    private static String clean(String s)
+    {
+        if (s == null)
+            return "";
+        int end = s.length();
+        while (end > 0 && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == 0))
+            end--;
+        return s.substring(0,end);
+    }
+
+    private static class Record
+    {
+        private String[] strings = new String[Catalog.STRING_FIELDS];
+        private byte version;
+        private byte genre;
+        private long tagLength;
+        private long audioOffset;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3.catalog;
+
+import java.util.BitSet;
+
+/**
+ * A query over a {@link CatalogIndex}, built from terms joined with AND and
+ * OR. For example, jazz from 1955 through 1965:
+ *
+ * <pre>
+ *   Query q = Query.genre("Jazz").and(Query.years(1955,1965));
+ *   int[] files = CatalogIndex.toFiles(q.evaluate(index));
+ * </pre>
+ */
+public abstract class Query
+{
+    protected Query()
+    {
+        super();
+    }
+
+    /**
+     * @param index CatalogIndex
+     * @return the files that match.
+     */
+    public abstract BitSet evaluate(CatalogIndex index);
+
+    /** @return a query matching files that match this and q. */
+    public Query and(Query q)
+    {
+        return new Join(this,q,true);
+    }
+
+    /** @return a query matching files that match this or q. */
+    public Query or(Query q)
+    {
+        return new Join(this,q,false);
+    }
+
+    /** @return files by an artist. */
+    public static Query artist(final String artist)
+    {
+        return new Query()
+        {
+            public BitSet evaluate(CatalogIndex index) { return index.artist(artist); }
+        };
+    }
+
+    /** @return files from an album. */
+    public static Query album(final String album)
+    {
+        return new Query()
+        {
+            public BitSet evaluate(CatalogIndex index) { return index.album(album); }
+        };
+    }
+
+    /** @return files in a genre, given as a name, number or "(n)". */
+    public static Query genre(final String genre)
+    {
+        return genre(CatalogWriter.genreCode(genre));
+    }
+
+    /** @return files in a genre, given as a 1.x genre byte. */
+    public static Query genre(final int code)
+    {
+        return new Query()
+        {
+            public BitSet evaluate(CatalogIndex index) { return index.genre(code); }
+        };
+    }
+
+    /** @return files from a range of years, both inclusive. */
+    public static Query years(final int from, final int to)
+    {
+        return new Query()
+        {
+            public BitSet evaluate(CatalogIndex index) { return index.years(from,to); }
+        };
+    }
+
+    private static class Join
+        extends Query
+    {
+        private Query left;
+        private Query right;
+        private boolean and;
+
+        private Join(Query left, Query right, boolean and)
+        {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        public BitSet evaluate(CatalogIndex index)
+        {
+            BitSet b = left.evaluate(index);
+            // nothing can come of the other side.
+            if (and && b.isEmpty())
+                return b;
+            if (and)
+                b.and(right.evaluate(index));
+            else
+                b.or(right.evaluate(index));
+            return b;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the word-at-a-time byte kernels in {@link ByteUtils} against plain
+ * byte-at-a-time versions. The inputs put 0xff, and the ff 00 and ff e0
+ * pairs unsynchronization cares about, at every offset of arrays up to a
+ * few words long, so that every position relative to a word boundary is
+ * covered.
+ */
+public class ByteUtilsTest
+{
+    private static final byte FF = (byte)0xff;
+
+    /**
+     * @param args String[]
+     */
+    public static void main(String[] args)
+    {
+        List<byte[]> samples = samples();
+        for (int i = 0; i < samples.size(); i++)
+        {
+            byte[] b = samples.get(i);
+            checkIndexOfFF(b);
+            checkUnsync(b);
+            checkSync(b);
+        }
+        System.out.println("ByteUtilsTest: " + samples.size() + " samples ok.");
+    }
+
+    /**
+     * @return arrays of lengths 0-17 (and a few longer ones) with 0xff, ff 00
+     * and ff e0 at every offset, on backgrounds of 00, 55 and e0, plus
+     * random arrays that are mostly ff.
+     */
+    static List<byte[]> samples()
+    {
+        List<byte[]> samples = new ArrayList<byte[]>();
+        byte[] backgrounds = new byte[]{ 0x00, 0x55, (byte)0xe0 };
+        for (int len = 0; len <= 17; len++)
+        {
+            for (int g = 0; g < backgrounds.length; g++)
+            {
+                samples.add(fill(len,backgrounds[g]));
+                for (int at = 0; at < len; at++)
+                {
+                    samples.add(put(fill(len,backgrounds[g]),at,new byte[]{ FF }));
+                    samples.add(put(fill(len,backgrounds[g]),at,new byte[]{ FF, 0x00 }));
+                    samples.add(put(fill(len,backgrounds[g]),at,new byte[]{ FF, (byte)0xe0 }));
+                    samples.add(put(fill(len,backgrounds[g]),at,new byte[]{ FF, 0x00, 0x00 }));
+                    samples.add(put(fill(len,backgrounds[g]),at,new byte[]{ FF, FF }));
+                }
+            }
+            samples.add(fill(len,FF));
+        }
+        // pairs straddling the second and third word boundaries.
+        for (int at = 5; at < 20; at++)
+        {
+            samples.add(put(fill(24,(byte)0x41),at,new byte[]{ FF, 0x00 }));
+            samples.add(put(fill(24,(byte)0x41),at,new byte[]{ FF, (byte)0xe7 }));
+        }
+        Random r = new Random(7);
+        for (int i = 0; i < 500; i++)
+        {
+            byte[] b = new byte[r.nextInt(70)];
+            for (int j = 0; j < b.length; j++)
+            {
+                int k = r.nextInt(4);
+                b[j] = k == 0 ? 0x00 : k == 1 ? FF : k == 2 ? (byte)(0xe0 | r.nextInt(32)) : (byte)r.nextInt(256);
+            }
+            samples.add(b);
+        }
+        return samples;
+    }
+
+    /**
+     * @param b byte[]
+     * @return b unsynchronized a byte at a time.
+     */
+    static byte[] unsyncSlowly(byte[] b)
+    {
+        List<Byte> out = new ArrayList<Byte>();
+        for (int i = 0; i < b.length; i++)
+        {
+            out.add(Byte.valueOf(b[i]));
+            if (b[i] == FF && (i + 1 == b.length || b[i + 1] == 0 || (b[i + 1] & 0xe0) == 0xe0))
+                out.add(Byte.valueOf((byte)0));
+        }
+        return toArray(out);
+    }
+
+    /**
+     * @param b byte[]
+     * @return b with the 00 after every ff dropped, a byte at a time.
+     */
+    static byte[] syncSlowly(byte[] b)
+    {
+        List<Byte> out = new ArrayList<Byte>();
+        for (int i = 0; i < b.length; i++)
+        {
+            out.add(Byte.valueOf(b[i]));
+            if (b[i] == FF && i + 1 < b.length && b[i + 1] == 0)
+                i++;
+        }
+        return toArray(out);
+    }
+
+    // every range of the array, and the same ranges of a sliced heap buffer
+    // and of a direct buffer.
+    private static void checkIndexOfFF(byte[] b)
+    {
+        byte[] padded = new byte[b.length + 3];
+        System.arraycopy(b,0,padded,3,b.length);
+        ByteBuffer slice = ByteBuffer.wrap(padded,3,b.length).slice();
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+        direct.put(b).clear();
+        for (int from = 0; from <= b.length; from++)
+        {
+            for (int to = from; to <= b.length; to++)
+            {
+                int expected = -1;
+                for (int i = from; i < to && expected < 0; i++)
+                {
+                    if (b[i] == FF)
+                        expected = i;
+                }
+                String what = "indexOfFF(" + from + "," + to + ") of " + Check.hex(b);
+                Check.equal(what,Integer.valueOf(expected),Integer.valueOf(ByteUtils.indexOfFF(b,from,to)));
+                Check.equal("sliced " + what,Integer.valueOf(expected),Integer.valueOf(ByteUtils.indexOfFF(slice,from,to)));
+                Check.equal("direct " + what,Integer.valueOf(expected),Integer.valueOf(ByteUtils.indexOfFF(direct,from,to)));
+            }
+        }
+    }
+
+    private static void checkUnsync(byte[] b)
+    {
+        byte[] expected = unsyncSlowly(b);
+        String what = Check.hex(b);
+        Check.equal("countUnsyncInsertions " + what,Integer.valueOf(expected.length - b.length),
+            Integer.valueOf(ByteUtils.countUnsyncInsertions(b,0,b.length)));
+        Check.equal("needsUnsync " + what,Boolean.valueOf(expected.length != b.length),
+            Boolean.valueOf(ByteUtils.needsUnsync(b,0,b.length)));
+        Check.equal("unsync",expected,ByteUtils.unsync(b));
+        Check.equal("sync(unsync)",b,ByteUtils.sync(ByteUtils.unsync(b)));
+        // a part of the array counts as if it were the whole thing.
+        if (b.length > 2)
+        {
+            byte[] part = new byte[b.length - 2];
+            System.arraycopy(b,1,part,0,part.length);
+            Check.equal("countUnsyncInsertions of part of " + what,
+                Integer.valueOf(unsyncSlowly(part).length - part.length),
+                Integer.valueOf(ByteUtils.countUnsyncInsertions(b,1,part.length)));
+        }
+    }
+
+    private static void checkSync(byte[] b)
+    {
+        byte[] expected = syncSlowly(b);
+        Check.equal("sync",expected,ByteUtils.sync(b));
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length + 2);
+        direct.put((byte)1).put(b).put((byte)2);
+        direct.position(1).limit(b.length + 1);
+        Check.equal("sync of a direct buffer",expected,ByteUtils.sync(direct));
+        Check.equal("sync moved the position",Integer.valueOf(1),Integer.valueOf(direct.position()));
+    }
+
+    private static byte[] fill(int len, byte value)
+    {
+        byte[] b = new byte[len];
+        java.util.Arrays.fill(b,value);
+        return b;
+    }
+
+    // copy as much of part as fits into b at an offset.
+    private static byte[] put(byte[] b, int at, byte[] part)
+    {
+        System.arraycopy(part,0,b,at,Math.min(part.length,b.length - at));
+        return b;
+    }
+
+    private static byte[] toArray(List<Byte> list)
+    {
+        byte[] b = new byte[list.size()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = list.get(i).byteValue();
+        return b;
+    }
+}
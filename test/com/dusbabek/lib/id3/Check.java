@@ -0,0 +1,82 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+/**
+ * Checks for the tests. The tests are plain programs; a failed check throws,
+ * which makes the program (and the ant test target) fail.
+ */
+public class Check
+{
+    private Check()
+    {
+        super();
+    }
+
+    /**
+     * @param ok boolean
+     * @param what String what went wrong if ok is false.
+     */
+    public static void that(boolean ok, String what)
+    {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+
+    /**
+     * @param what String what is being compared.
+     * @param expected Object
+     * @param actual Object
+     */
+    public static void equal(String what, Object expected, Object actual)
+    {
+        if (expected == null ? actual != null : !expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+
+    /**
+     * @param what String what is being compared.
+     * @param expected byte[]
+     * @param actual byte[]
+     */
+    public static void equal(String what, byte[] expected, byte[] actual)
+    {
+        if (!java.util.Arrays.equals(expected,actual))
+            throw new AssertionError(what + ": expected " + hex(expected) + " but was " + hex(actual));
+    }
+
+    /**
+     * @param b byte[]
+     * @return the bytes in hex.
+     */
+    public static String hex(byte[] b)
+    {
+        if (b == null)
+            return "null";
+        StringBuffer sb = new StringBuffer(b.length * 3);
+        for (int i = 0; i < b.length; i++)
+        {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(Character.forDigit((b[i] >> 4) & 0x0f,16));
+            sb.append(Character.forDigit(b[i] & 0x0f,16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Replaces a file whose new tag doesn't fit, next to a temp file left over
+ * from an earlier run, and syncs directories some of which can't be synced.
+ */
+public class DirectorySyncTest
+{
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        File root = Files.createTempDirectory("dirsync").toFile();
+        try
+        {
+            replace(root);
+            failures(root);
+        }
+        finally
+        {
+            delete(root);
+        }
+        System.out.println("DirectorySyncTest: ok.");
+    }
+
+    // the tag grows past its room, so the file is copied and moved over the
+    // original. A leftover file with the old fixed temp name stays as it is.
+    private static void replace(File root)
+        throws IOException
+    {
+        File f = new File(root,"song.mp3");
+        byte[] audio = new byte[4096];
+        for (int i = 0; i < audio.length; i++)
+            audio[i] = (byte)(i * 31 + 7);
+        audio[0] = (byte)0xff;
+        audio[1] = (byte)0xfb;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] body = "\0old".getBytes("ISO-8859-1");
+        out.write(new byte[]{ 'I', 'D', '3', 3, 0, 0 });
+        out.write(ByteUtils.longToByte4(ByteUtils.addZeroBits(10 + body.length)));
+        out.write("TIT2".getBytes("ISO-8859-1"));
+        out.write(ByteUtils.longToByte4(body.length));
+        out.write(new byte[2]);
+        out.write(body);
+        out.write(audio);
+        Files.write(f.toPath(),out.toByteArray());
+        File leftover = new File(root,"song.mp3.tmp");
+        Files.write(leftover.toPath(),new byte[]{ 1, 2, 3 });
+
+        Mp3File mp3 = new Mp3File(f);
+        mp3.getTag().setTitle("a title much longer than the old one");
+        DirectorySync dirs = new DirectorySync();
+        mp3.rewrite(dirs);
+        Check.equal("dirs to sync",Integer.valueOf(1),Integer.valueOf(dirs.size()));
+        dirs.sync();
+        Check.equal("dirs after sync",Integer.valueOf(0),Integer.valueOf(dirs.size()));
+
+        Check.equal("title","a title much longer than the old one",new Reader().read(f).getTitle());
+        byte[] now = Files.readAllBytes(f.toPath());
+        Check.equal("audio",audio,Arrays.copyOfRange(now,now.length - audio.length,now.length));
+        Check.equal("leftover",new byte[]{ 1, 2, 3 },Files.readAllBytes(leftover.toPath()));
+        String[] names = root.list();
+        Arrays.sort(names);
+        Check.equal("files",Arrays.asList(new String[]{ "song.mp3", "song.mp3.tmp" }),Arrays.asList(names));
+    }
+
+    // directories that can't be synced don't stop the others, stay queued,
+    // and the first failure is the one thrown.
+    private static void failures(File root)
+        throws IOException
+    {
+        File a = new File(root,"a");
+        File missing = new File(root,"missing");
+        File b = new File(root,"b");
+        File gone = new File(root,"gone");
+        a.mkdir();
+        b.mkdir();
+        DirectorySync dirs = new DirectorySync();
+        dirs.add(a);
+        dirs.add(missing);
+        dirs.add(b);
+        dirs.add(gone);
+        try
+        {
+            dirs.sync();
+            Check.that(false,"sync of a missing directory didn't fail");
+        }
+        catch (IOException ex)
+        {
+            Check.that(ex.getMessage().indexOf("missing") >= 0,"first failure not thrown: " + ex);
+        }
+        Check.equal("still queued",Integer.valueOf(2),Integer.valueOf(dirs.size()));
+
+        missing.mkdir();
+        gone.mkdir();
+        dirs.sync();
+        Check.equal("all synced",Integer.valueOf(0),Integer.valueOf(dirs.size()));
+
+        try
+        {
+            DirectorySync.syncDirectory(new File(root,"nowhere"));
+            Check.that(false,"sync of a missing directory didn't fail");
+        }
+        catch (IOException ex)
+        {
+            // expected.
+        }
+    }
+
+    private static void delete(File f)
+    {
+        File[] kids = f.listFiles();
+        for (int i = 0; kids != null && i < kids.length; i++)
+            delete(kids[i]);
+        f.delete();
+    }
+}
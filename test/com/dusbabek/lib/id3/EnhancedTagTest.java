@@ -0,0 +1,87 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Reads a v1 tag with an enhanced ("TAG+") block, writes it back in place
+ * and to another file, and checks that both keep the block and the audio,
+ * and that long fields come back without the block's padding.
+ */
+public class EnhancedTagTest
+{
+    private static final String TITLE = "a title that is longer than thirty characters";
+
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        File dir = Tags.dir("enhanced");
+        try
+        {
+            byte[] audio = Tags.audio(4096);
+            File f = Tags.file(dir,"in.mp3",Tags.cat(new byte[][]{ audio, enhanced(TITLE.substring(30)), ReadAsyncTest.v1(TITLE.substring(0,30)) }));
+            Tag_v1 t = (Tag_v1)new Reader().read(f);
+            Check.that(t.hasEnhanced(),"enhanced block not read");
+            Check.equal("title",TITLE,t.getTitle());
+
+            Mp3File mp3 = new Mp3File(f);
+            mp3.getTag().setArtist("someone");
+            File other = new File(dir,"out.mp3");
+            mp3.write(other);
+            mp3.write();
+            File[] files = new File[]{ other, f };
+            for (int i = 0; i < files.length; i++)
+            {
+                byte[] b = Files.readAllBytes(files[i].toPath());
+                String what = files[i].getName() + ": ";
+                Check.equal(what + "length",Integer.valueOf(audio.length + Tag_v1.ENHANCED_TAG_LENGTH + Tag_v1.TAG_LENGTH),Integer.valueOf(b.length));
+                Check.equal(what + "audio",audio,Arrays.copyOf(b,audio.length));
+                Tag_v1 again = (Tag_v1)new Reader().read(files[i]);
+                Check.that(again.hasEnhanced(),what + "enhanced block dropped");
+                Check.equal(what + "title",TITLE,again.getTitle());
+                Check.equal(what + "artist","someone",again.getArtist().trim());
+            }
+        }
+        finally
+        {
+            Tags.delete(dir);
+        }
+        System.out.println("EnhancedTagTest: ok.");
+    }
+
+    // an enhanced block with the rest of a title, padded with nulls.
+    private static byte[] enhanced(String rest)
+    {
+        byte[] b = new byte[Tag_v1.ENHANCED_TAG_LENGTH];
+        b[0] = 'T';
+        b[1] = 'A';
+        b[2] = 'G';
+        b[3] = '+';
+        System.arraycopy(rest.getBytes(),0,b,4,rest.length());
+        return b;
+    }
+}
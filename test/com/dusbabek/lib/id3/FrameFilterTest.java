@@ -0,0 +1,145 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads tags with filters and checks that only the selected frames come
+ * back, that the first of two frames with the same id wins, and that a
+ * stream isn't read further than the last selected frame.
+ */
+public class FrameFilterTest
+{
+    private static final int BIG = 200000;
+
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        File dir = Tags.dir("filter");
+        try
+        {
+            // not 2.4: FrameHeader_v2_4 doesn't read sizes as synchsafe, so
+            // the big frame can't be built the way the spec says.
+            check(dir,2);
+            check(dir,3);
+        }
+        finally
+        {
+            Tags.delete(dir);
+        }
+        System.out.println("FrameFilterTest: ok.");
+    }
+
+    private static void check(File dir, int version)
+        throws IOException
+    {
+        String what = "v2." + version + ": ";
+        boolean v2 = version == 2;
+        byte[] tag = Tags.tag(version,false,Tags.cat(new byte[][]{
+            Tags.text(version,v2 ? "TT2" : "TIT2","title"),
+            Tags.text(version,v2 ? "TP1" : "TPE1","artist"),
+            Tags.frame(version,v2 ? "PRV" : "PRIV",new byte[BIG]),
+            Tags.text(version,v2 ? "TT2" : "TIT2","second title"),
+            Tags.text(version,v2 ? "TAL" : "TALB","album") }),100);
+        byte[] whole = Tags.cat(new byte[][]{ tag, Tags.audio(1024) });
+        File f = Tags.file(dir,"v" + version + ".mp3",whole);
+
+        FrameFilter front = new FrameFilter(new int[]{ FrameType.SONGNAME, FrameType.ARTIST });
+        FrameFilter back = new FrameFilter(new int[]{ FrameType.ALBUM });
+        FrameFilter none = new FrameFilter(new String[]{ v2 ? "TIT2" : "TT2" });
+
+        Tag[] fronts = new Tag[]{ new Reader().read(f,front), stream(whole,front,null) };
+        for (int i = 0; i < fronts.length; i++)
+        {
+            Check.equal(what + "title " + i,"title",fronts[i].getTitle());
+            Check.equal(what + "artist " + i,"artist",fronts[i].getArtist());
+            Check.equal(what + "album " + i,"",fronts[i].getAlbum());
+        }
+        Tag[] backs = new Tag[]{ new Reader().read(f,back), stream(whole,back,null) };
+        for (int i = 0; i < backs.length; i++)
+        {
+            Check.equal(what + "back title " + i,"",backs[i].getTitle());
+            Check.equal(what + "back album " + i,"album",backs[i].getAlbum());
+        }
+        // ids from another version select nothing.
+        Tag[] nones = new Tag[]{ new Reader().read(f,none), stream(whole,none,null) };
+        for (int i = 0; i < nones.length; i++)
+            Check.equal(what + "other version " + i,"",nones[i].getTitle());
+
+        // stopping early means the big frame, and everything after it, is
+        // never read.
+        long[] count = new long[1];
+        stream(whole,front,count);
+        Check.that(count[0] < BIG / 10,what + "read " + count[0] + " bytes for the first frames");
+        stream(whole,back,count);
+        Check.that(count[0] > BIG,what + "read only " + count[0] + " bytes for the last frame");
+        stream(whole,none,count);
+        Check.that(count[0] < BIG / 10,what + "read " + count[0] + " bytes for no frames");
+    }
+
+    // read a tag from a stream with a filter, counting the bytes taken from
+    // the stream if count isn't null.
+    private static Tag stream(byte[] b, FrameFilter filter, final long[] count)
+        throws IOException
+    {
+        InputStream in = new ByteArrayInputStream(b);
+        if (count != null)
+        {
+            count[0] = 0;
+            in = new FilterInputStream(in)
+            {
+                public int read()
+                    throws IOException
+                {
+                    int r = super.read();
+                    if (r >= 0)
+                        count[0]++;
+                    return r;
+                }
+
+                public int read(byte[] buf, int off, int len)
+                    throws IOException
+                {
+                    int r = super.read(buf,off,len);
+                    if (r > 0)
+                        count[0] += r;
+                    return r;
+                }
+
+                public long skip(long n)
+                    throws IOException
+                {
+                    long s = super.skip(n);
+                    count[0] += s;
+                    return s;
+                }
+            };
+        }
+        return new Reader().read(in,b.length,filter);
+    }
+}
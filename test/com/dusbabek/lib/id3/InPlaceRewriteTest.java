@@ -0,0 +1,145 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Writes tags back into their files in place and checks that the file keeps
+ * its length, the audio is untouched, and the tag reads back as written, for
+ * plain and unsynchronized tags and for tags small enough to be read onto
+ * the heap and big enough to be mapped.
+ */
+public class InPlaceRewriteTest
+{
+    // a frame with bytes that need unsynchronizing.
+    private static final byte[] PRIVATE = new byte[]{
+        'o', 'w', 'n', 'e', 'r', 0, (byte)0xff, 0x00, (byte)0xff, (byte)0xe0, (byte)0xff, (byte)0xff, 0x01, (byte)0xff };
+
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        for (int unsync = 0; unsync < 2; unsync++)
+        {
+            check(200,unsync == 1);
+            check(3 * Reader.getMapThreshold(),unsync == 1);
+        }
+        System.out.println("InPlaceRewriteTest: ok.");
+    }
+
+    private static void check(int commentLen, boolean unsync)
+        throws IOException
+    {
+        String what = commentLen + " byte comment" + (unsync ? ", unsynchronized: " : ": ");
+        byte[] audio = new byte[4096];
+        for (int i = 0; i < audio.length; i++)
+            audio[i] = (byte)(i * 31);
+        audio[0] = (byte)0xff;
+        audio[1] = (byte)0xfb;
+
+        char[] comment = new char[commentLen];
+        java.util.Arrays.fill(comment,'c');
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frame(frames,"TIT2",("\0A title that is fairly long").getBytes("ISO-8859-1"));
+        frame(frames,"COMM",("\0eng\0" + new String(comment)).getBytes("ISO-8859-1"));
+        frame(frames,"PRIV",PRIVATE);
+        byte[] frameBytes = frames.toByteArray();
+        if (unsync)
+            frameBytes = ByteUtils.unsync(frameBytes);
+        int size = frameBytes.length + 1024;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(new byte[]{ 'I', 'D', '3', 3, 0, (byte)(unsync ? 0x80 : 0) });
+        bout.write(ByteUtils.longToByte4(ByteUtils.addZeroBits(size)));
+        bout.write(frameBytes);
+        bout.write(new byte[1024]);
+        int tagLen = bout.size();
+        bout.write(audio);
+        byte[] before = bout.toByteArray();
+        File f = File.createTempFile("inplace",".mp3");
+        f.deleteOnExit();
+        Files.write(f.toPath(),before);
+
+        Tag read = new Reader().read(f);
+        Check.equal(what + "title as written","A title that is fairly long",read.getTitle());
+        read.setTitle("Short");
+        read.setAlbum("An album");
+        Check.that(Mp3File.writeInPlace(f,read),what + "didn't fit in place");
+
+        byte[] after = Files.readAllBytes(f.toPath());
+        Check.equal(what + "length",Integer.valueOf(before.length),Integer.valueOf(after.length));
+        for (int i = 0; i < audio.length; i++)
+            Check.that(after[tagLen + i] == audio[i],what + "audio changed at " + i);
+        Tag back = new Reader().read(f);
+        Check.equal(what + "title","Short",back.getTitle());
+        Check.equal(what + "album","An album",back.getAlbum());
+        Check.equal(what + "comment",new String(comment),back.getComment());
+        Check.equal(what + "tag length",Long.valueOf(tagLen),Long.valueOf(back.originalTagLength()));
+        Check.equal(what + "unsynchronization flag",Boolean.valueOf(unsync),Boolean.valueOf((after[5] & 0x80) != 0));
+        // the frame the tag doesn't know about is written back as it was.
+        byte[] region = new byte[tagLen - 10];
+        System.arraycopy(after,10,region,0,region.length);
+        if (unsync)
+        {
+            byte[] synced = ByteUtils.sync(region);
+            Check.that(synced.length < region.length,what + "not unsynchronized");
+            region = synced;
+        }
+        Check.that(indexOf(region,PRIVATE) >= 0,what + "private frame lost");
+        // the tag that was written has been detached from the file, so it
+        // still reads the same.
+        Check.equal(what + "comment of the written tag",new String(comment),read.getComment());
+
+        // a tag that no longer fits is refused without touching the file.
+        char[] big = new char[tagLen];
+        java.util.Arrays.fill(big,'b');
+        back.setTitle(new String(big));
+        Check.that(!Mp3File.writeInPlace(f,back),what + "oversized tag written in place");
+        Check.equal(what + "file after refusing",after,Files.readAllBytes(f.toPath()));
+        f.delete();
+    }
+
+    private static void frame(ByteArrayOutputStream out, String id, byte[] body)
+        throws IOException
+    {
+        out.write(id.getBytes("ISO-8859-1"));
+        out.write(ByteUtils.longToByte4(body.length));
+        out.write(new byte[2]);
+        out.write(body);
+    }
+
+    private static int indexOf(byte[] b, byte[] part)
+    {
+        for (int i = 0; i + part.length <= b.length; i++)
+        {
+            int j = 0;
+            while (j < part.length && b[i + j] == part[j])
+                j++;
+            if (j == part.length)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Watches a directory tree that has a symbolic link back up to its root,
+ * and checks that new MP3s are reported, that a listener that throws is
+ * told about it, and that the watcher keeps going afterwards.
+ */
+public class LibraryWatcherTest
+{
+    private static final long WAIT = 10000;
+
+    private static List<Path> read = Collections.synchronizedList(new ArrayList<Path>());
+    private static List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+    private static volatile boolean explode = false;
+
+    /**
+     * @param args String[]
+     * @throws Exception
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        File dir = Tags.dir("watcher");
+        LibraryWatcher w = null;
+        try
+        {
+            Path root = dir.toPath();
+            Path album = root.resolve("album");
+            Files.createDirectories(album.resolve("cd1"));
+            Files.createSymbolicLink(album.resolve("cd1").resolve("up"),root);
+            w = new LibraryWatcher(new LibraryListener()
+            {
+                public void tagsChanged(List<ReadResult> results)
+                {
+                    if (explode)
+                        throw new IllegalStateException("listener broke");
+                    for (int i = 0; i < results.size(); i++)
+                        read.add(results.get(i).getPath());
+                }
+
+                public void filesRemoved(List<Path> paths)
+                {
+                }
+
+                public void watchFailed(Path d, Exception ex)
+                {
+                    failures.add(ex);
+                }
+            });
+            w.register(root);
+            w.start();
+
+            Path a = album.resolve("cd1").resolve("a.mp3");
+            write(a);
+            waitFor("a read",read,a);
+
+            explode = true;
+            write(album.resolve("b.mp3"));
+            long end = System.currentTimeMillis() + WAIT;
+            while (failures.isEmpty() && System.currentTimeMillis() < end)
+                Thread.sleep(50);
+            Check.equal("failures",Integer.valueOf(1),Integer.valueOf(failures.size()));
+            Check.that(failures.get(0) instanceof IllegalStateException,"failure " + failures.get(0));
+
+            explode = false;
+            Path c = root.resolve("c.mp3");
+            write(c);
+            waitFor("c read after a failure",read,c);
+        }
+        finally
+        {
+            if (w != null)
+                w.close();
+            Tags.delete(dir);
+        }
+        System.out.println("LibraryWatcherTest: ok.");
+    }
+
+    private static void write(Path p)
+        throws IOException
+    {
+        Files.write(p,Tags.cat(new byte[][]{ Tags.tag(3,false,Tags.text(3,"TIT2","title"),64), Tags.audio(1024) }));
+    }
+
+    private static void waitFor(String what, List<Path> list, Path p)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + WAIT;
+        while (!list.contains(p) && System.currentTimeMillis() < end)
+            Thread.sleep(50);
+        Check.that(list.contains(p),what + ": " + list);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads a batch of good and bad files on a pool, one at a time, and on an
+ * executor that rejects everything, and checks that every file has its
+ * result, in order, with failures reported instead of thrown.
+ */
+public class ReadAllTest
+{
+    /**
+     * @param args String[]
+     * @throws Exception
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        File dir = Tags.dir("readall");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ExecutorService dead = Executors.newSingleThreadExecutor();
+        dead.shutdown();
+        try
+        {
+            List<Path> paths = new ArrayList<Path>();
+            List<Class<?>> expected = new ArrayList<Class<?>>();
+            for (int i = 0; i < 40; i++)
+            {
+                switch (i % 5)
+                {
+                    case 0:
+                    case 1:
+                        paths.add(Tags.file(dir,i + ".mp3",Tags.cat(new byte[][]{
+                            Tags.tag(3,false,Tags.text(3,"TIT2","title " + i),64),
+                            Tags.audio(1024) })).toPath());
+                        expected.add(null);
+                        break;
+                    case 2:
+                        paths.add(Tags.file(dir,i + ".mp3",Tags.cat(new byte[][]{
+                            Tags.audio(1024),
+                            ReadAsyncTest.v1("title " + i) })).toPath());
+                        expected.add(null);
+                        break;
+                    case 3:
+                        paths.add(Tags.file(dir,i + ".mp3",Tags.audio(1024)).toPath());
+                        expected.add(NotATagException.class);
+                        break;
+                    default:
+                        paths.add(new File(dir,i + ".mp3").toPath());
+                        expected.add(FileNotFoundException.class);
+                        break;
+                }
+            }
+            check("pool",new Reader().readAll(paths,pool),paths,expected);
+            check("one at a time",new Reader().readAll(paths,pool,null,1),paths,expected);
+            check("rejected",new Reader().readAll(paths,dead,null,3),paths,expected);
+
+            List<ReadResult> some = new Reader().readAll(paths,pool,new FrameFilter(new int[]{ FrameType.ARTIST }),8);
+            Check.equal("filtered",Integer.valueOf(paths.size()),Integer.valueOf(some.size()));
+            Check.equal("filtered title","",some.get(0).getTag().getTitle());
+
+            Check.equal("empty",Integer.valueOf(0),Integer.valueOf(new Reader().readAll(new ArrayList<Path>(),pool).size()));
+        }
+        finally
+        {
+            pool.shutdown();
+            Tags.delete(dir);
+        }
+        System.out.println("ReadAllTest: ok.");
+    }
+
+    private static void check(String what, List<ReadResult> results, List<Path> paths, List<Class<?>> expected)
+    {
+        Check.equal(what + " results",Integer.valueOf(paths.size()),Integer.valueOf(results.size()));
+        for (int i = 0; i < results.size(); i++)
+        {
+            ReadResult r = results.get(i);
+            String w = what + " " + i;
+            Check.equal(w + " path",paths.get(i),r.getPath());
+            if (expected.get(i) == null)
+            {
+                Check.that(r.isOk(),w + " failed: " + r.getError());
+                Check.equal(w + " title","title " + i,r.getTag().getTitle().trim());
+            }
+            else
+            {
+                Check.that(!r.isOk() && r.getTag() == null,w + " didn't fail");
+                Check.that(expected.get(i).isInstance(r.getError()),w + " failed with " + r.getError());
+            }
+        }
+    }
+}
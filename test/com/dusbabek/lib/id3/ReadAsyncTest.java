@@ -0,0 +1,103 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads files without blocking and checks that the tags match what a
+ * blocking read finds, and that failures complete the future with the
+ * exception a blocking read would have thrown.
+ */
+public class ReadAsyncTest
+{
+    /**
+     * @param args String[]
+     * @throws Exception
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        File dir = Tags.dir("async");
+        try
+        {
+            File v2 = Tags.file(dir,"v2.mp3",Tags.cat(new byte[][]{
+                Tags.tag(3,true,Tags.cat(new byte[][]{
+                    Tags.text(3,"TIT2","title"),
+                    Tags.frame(3,"PRIV",Tags.audio(100000)),
+                    Tags.text(3,"TPE1","artist") }),100),
+                Tags.audio(4096) }));
+            File v1 = Tags.file(dir,"v1.mp3",Tags.cat(new byte[][]{ Tags.audio(4096), v1("old title") }));
+            File none = Tags.file(dir,"none.mp3",Tags.audio(4096));
+            File small = Tags.file(dir,"small.mp3",new byte[3]);
+            byte[] cut = Tags.tag(3,false,Tags.text(3,"TIT2","title"),1000);
+            File truncated = Tags.file(dir,"truncated.mp3",java.util.Arrays.copyOf(cut,cut.length / 2));
+
+            Tag t = new Reader().readAsync(v2.toPath()).get();
+            Check.equal("v2 title","title",t.getTitle());
+            Check.equal("v2 artist","artist",t.getArtist());
+            Check.equal("v2 frames",((Tag_v2)new Reader().read(v2)).encodeFrames(),((Tag_v2)t).encodeFrames());
+            t = new Reader().readAsync(v2.toPath(),new FrameFilter(new int[]{ FrameType.ARTIST })).get();
+            Check.equal("filtered title","",t.getTitle());
+            Check.equal("filtered artist","artist",t.getArtist());
+            t = new Reader().readAsync(v1.toPath()).get();
+            Check.equal("v1 version",new Reader().read(v1).getVersion(),t.getVersion());
+            Check.equal("v1 title","old title",t.getTitle().trim());
+
+            fails("no tag",none,NotATagException.class);
+            fails("too small",small,IOException.class);
+            fails("truncated",truncated,IOException.class);
+            fails("missing",new File(dir,"missing.mp3"),NoSuchFileException.class);
+        }
+        finally
+        {
+            Tags.delete(dir);
+        }
+        System.out.println("ReadAsyncTest: ok.");
+    }
+
+    // a 1.0 tag with just a title.
+    static byte[] v1(String title)
+    {
+        byte[] b = new byte[Tag_v1.TAG_LENGTH];
+        b[0] = 'T';
+        b[1] = 'A';
+        b[2] = 'G';
+        System.arraycopy(title.getBytes(),0,b,3,title.length());
+        return b;
+    }
+
+    private static void fails(String what, File f, Class<? extends IOException> expected)
+        throws InterruptedException
+    {
+        try
+        {
+            new Reader().readAsync(f.toPath()).get();
+        }
+        catch (ExecutionException ex)
+        {
+            Check.that(expected.isInstance(ex.getCause()),what + ": failed with " + ex.getCause());
+            return;
+        }
+        throw new AssertionError(what + ": didn't fail");
+    }
+}
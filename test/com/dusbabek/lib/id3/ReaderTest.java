@@ -0,0 +1,144 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the same tags onto the heap, by mapping them, off a channel and off
+ * a stream, and checks that all of them come out the same. Frame payloads
+ * are slices of the tag buffer, so they are also checked after the tag is
+ * detached from it and after other tags have been read. A frame that can't
+ * be decoded when it is first asked for is dropped and remembered.
+ */
+public class ReaderTest
+{
+    private static final byte[] PRIVATE = new byte[]{
+        'o', 'w', 'n', 'e', 'r', 0, (byte)0xff, 0x00, (byte)0xff, (byte)0xe0, 0x01, (byte)0xff };
+
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        File dir = Tags.dir("reader");
+        int threshold = Reader.getMapThreshold();
+        try
+        {
+            check(dir,2,false);
+            check(dir,3,false);
+            check(dir,3,true);
+            check(dir,4,false);
+            corrupt(dir);
+        }
+        finally
+        {
+            Reader.setMapThreshold(threshold);
+            Tags.delete(dir);
+        }
+        System.out.println("ReaderTest: ok.");
+    }
+
+    private static void check(File dir, int version, boolean unsync)
+        throws IOException
+    {
+        String what = "v2." + version + (unsync ? " unsynchronized: " : ": ");
+        byte[] frames = Tags.cat(new byte[][]{
+            Tags.text(version,version == 2 ? "TT2" : "TIT2","title"),
+            Tags.text(version,version == 2 ? "TP1" : "TPE1","artist"),
+            Tags.frame(version,version == 2 ? "COM" : "COMM",("\0eng\0a comment").getBytes("ISO-8859-1")),
+            Tags.frame(version,version == 2 ? "PRV" : "PRIV",PRIVATE),
+            Tags.text(version,version == 2 ? "TAL" : "TALB","album") });
+        byte[] tag = Tags.tag(version,unsync,frames,200);
+        File f = Tags.file(dir,"v" + version + unsync + ".mp3",Tags.cat(new byte[][]{ tag, Tags.audio(2048) }));
+
+        Reader.setMapThreshold(Integer.MAX_VALUE);
+        int mapped = MappedTags.size();
+        Tag_v2 heap = (Tag_v2)new Reader().read(f);
+        Check.equal(what + "heap reads aren't registered",Integer.valueOf(mapped),Integer.valueOf(MappedTags.size()));
+        Reader.setMapThreshold(0);
+        Tag_v2 map = (Tag_v2)new Reader().read(f);
+        Check.equal(what + "mapped reads are registered",Integer.valueOf(mapped + 1),Integer.valueOf(MappedTags.size()));
+        FileInputStream in = new FileInputStream(f);
+        Tag_v2 channel = null;
+        try
+        {
+            channel = (Tag_v2)new Reader().read(in.getChannel());
+        }
+        finally
+        {
+            in.close();
+        }
+        byte[] whole = Tags.cat(new byte[][]{ tag, Tags.audio(2048) });
+        Tag_v2 stream = (Tag_v2)new Reader().read(new ByteArrayInputStream(whole),whole.length);
+
+        Tag_v2[] tags = new Tag_v2[]{ heap, map, channel, stream };
+        String[] names = new String[]{ "heap", "mapped", "channel", "stream" };
+        for (int i = 0; i < tags.length; i++)
+        {
+            Tag_v2 t = tags[i];
+            String w = what + names[i] + " ";
+            Check.equal(w + "version","2." + version,t.getVersion());
+            Check.equal(w + "title","title",t.getTitle());
+            Check.equal(w + "artist","artist",t.getArtist());
+            Check.equal(w + "album","album",t.getAlbum());
+            Check.equal(w + "comment","a comment",t.getComment());
+            Check.equal(w + "length",Long.valueOf(tag.length),Long.valueOf(t.originalTagLength()));
+            Check.equal(w + "frames",heap.encodeFrames(),t.encodeFrames());
+        }
+
+        // frames that weren't decoded yet survive the tag letting go of its
+        // buffer; a read of another file doesn't disturb them either.
+        Tag_v2 fresh = (Tag_v2)new Reader().read(f);
+        byte[] before = fresh.encodeFrames();
+        Tag_v2 other = (Tag_v2)new Reader().read(f);
+        other.detach();
+        Check.equal(what + "detached frames",before,other.encodeFrames());
+        Check.equal(what + "after another read",before,fresh.encodeFrames());
+    }
+
+    // a compressed title that isn't zlib, found only once it is decoded.
+    private static void corrupt(File dir)
+        throws IOException
+    {
+        byte[] bad = Tags.cat(new byte[][]{
+            "TIT2".getBytes("ISO-8859-1"),
+            ByteUtils.longToByte4(8),
+            new byte[]{ 0, (byte)0x80 },
+            ByteUtils.longToByte4(20),
+            "not zlib".getBytes("ISO-8859-1") });
+        byte[] tag = Tags.tag(3,false,Tags.cat(new byte[][]{ bad, Tags.text(3,"TPE1","artist") }),100);
+        File f = Tags.file(dir,"corrupt.mp3",Tags.cat(new byte[][]{ tag, Tags.audio(1024) }));
+        Tag_v2 t = (Tag_v2)new Reader().read(f);
+        Check.equal("nothing decoded yet",Integer.valueOf(0),Integer.valueOf(t.getCorruptFrames().size()));
+        Check.equal("corrupt title","",t.getTitle());
+        Check.equal("artist next to it","artist",t.getArtist());
+        Check.equal("title again","",t.getTitle());
+        Check.equal("corrupt frames",Integer.valueOf(1),Integer.valueOf(t.getCorruptFrames().size()));
+        CorruptFrameException ex = t.getCorruptFrames().get(0);
+        Check.that(ex.getMessage().startsWith("TIT2: "),"message " + ex.getMessage());
+        Check.that(ex.getCause() instanceof CorruptFrameException,"cause " + ex.getCause());
+        Check.equal("copied",Integer.valueOf(1),Integer.valueOf(t.copy().getCorruptFrames().size()));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Saves and loads scan states and checks which files come back as hits:
+ * unchanged files do, changed, new and failed ones don't, and files nobody
+ * asked about are dropped on the next save.
+ */
+public class ScanStateTest
+{
+    private static final String ODD = "/music/Bj\u00f6rk/\u65e5\u672c.mp3";
+
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        File dir = Tags.dir("scanstate");
+        try
+        {
+            File f = new File(dir,"state");
+            ScanState s = ScanState.load(f);
+            Check.equal("empty",Integer.valueOf(0),Integer.valueOf(s.size()));
+            Check.equal("new file",Integer.valueOf(-1),Integer.valueOf(s.lookup("/a.mp3",10,20)));
+            s.record("/a.mp3",10,20,ScanState.OK);
+            s.record("/b.mp3",11,21,ScanState.NO_TAG);
+            s.record("/c.mp3",12,22,ScanState.CORRUPT);
+            s.record("/d.mp3",13,23,ScanState.ERROR);
+            s.record(ODD,14,24,ScanState.BAD_VERSION);
+            Check.equal("errors aren't kept",Integer.valueOf(4),Integer.valueOf(s.size()));
+            s.save(f);
+            Check.equal("no temp file left",Integer.valueOf(1),Integer.valueOf(dir.list().length));
+
+            s = ScanState.load(f);
+            Check.equal("loaded",Integer.valueOf(0),Integer.valueOf(s.size()));
+            Check.equal("stale",Integer.valueOf(4),Integer.valueOf(s.stale()));
+            Check.equal("hit",Integer.valueOf(ScanState.OK),Integer.valueOf(s.lookup("/a.mp3",10,20)));
+            Check.equal("odd path",Integer.valueOf(ScanState.BAD_VERSION),Integer.valueOf(s.lookup(ODD,14,24)));
+            Check.equal("size changed",Integer.valueOf(-1),Integer.valueOf(s.lookup("/b.mp3",99,21)));
+            Check.equal("modified",Integer.valueOf(-1),Integer.valueOf(s.lookup("/c.mp3",12,99)));
+            Check.equal("error",Integer.valueOf(-1),Integer.valueOf(s.lookup("/d.mp3",13,23)));
+            s.record("/c.mp3",12,99,ScanState.OK);
+            Check.equal("kept",Integer.valueOf(3),Integer.valueOf(s.size()));
+            Check.equal("left",Integer.valueOf(1),Integer.valueOf(s.stale()));
+            s.save(f);
+
+            // b was looked up but changed, and never recorded: it's gone.
+            s = ScanState.load(f);
+            Check.equal("b dropped",Integer.valueOf(-1),Integer.valueOf(s.lookup("/b.mp3",11,21)));
+            Check.equal("c updated",Integer.valueOf(ScanState.OK),Integer.valueOf(s.lookup("/c.mp3",12,99)));
+            Check.equal("a again",Integer.valueOf(ScanState.OK),Integer.valueOf(s.lookup("/a.mp3",10,20)));
+            Check.equal("odd again",Integer.valueOf(ScanState.BAD_VERSION),Integer.valueOf(s.lookup(ODD,14,24)));
+
+            Files.write(f.toPath(),"not a scan state".getBytes());
+            try
+            {
+                ScanState.load(f);
+                Check.that(false,"loaded garbage");
+            }
+            catch (IOException ex)
+            {
+                // expected.
+            }
+        }
+        finally
+        {
+            Tags.delete(dir);
+        }
+        System.out.println("ScanStateTest: ok.");
+    }
+}
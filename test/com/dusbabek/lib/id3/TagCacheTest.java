@@ -0,0 +1,151 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads files through a small cache and checks hits and misses, least
+ * recently used eviction by bytes, that changed files are read again, and
+ * that changing a tag handed out by the cache doesn't change the cached one.
+ */
+public class TagCacheTest
+{
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        File dir = Tags.dir("tagcache");
+        try
+        {
+            eviction(dir);
+            isolation(dir);
+            changes(dir);
+        }
+        finally
+        {
+            Tags.delete(dir);
+        }
+        System.out.println("TagCacheTest: ok.");
+    }
+
+    // a file with a 10000 byte tag, or a bigger one.
+    private static File file(File dir, String name, int padding)
+        throws IOException
+    {
+        return Tags.file(dir,name,Tags.cat(new byte[][]{
+            Tags.tag(3,false,Tags.text(3,"TIT2",name),padding),
+            Tags.audio(1024) }));
+    }
+
+    // room for two 10000 byte tags, not three.
+    private static void eviction(File dir)
+        throws IOException
+    {
+        TagCache cache = new TagCache(25000);
+        File a = file(dir,"a",9975);
+        File b = file(dir,"b",9975);
+        File c = file(dir,"c",9975);
+        File big = file(dir,"big",30000);
+        cache.read(a);
+        cache.read(b);
+        counts("two",cache,0,2,2);
+        Check.that(cache.getBytes() > 20000 && cache.getBytes() <= 25000,"bytes " + cache.getBytes());
+        cache.read(a); // b is now the oldest.
+        cache.read(c);
+        counts("b evicted",cache,1,3,2);
+        cache.read(a);
+        cache.read(c);
+        counts("a and c kept",cache,3,3,2);
+        cache.read(b);
+        counts("b again",cache,3,4,2);
+        Check.that(cache.getBytes() <= 25000,"bytes " + cache.getBytes());
+        cache.read(big);
+        cache.read(big);
+        counts("too big to cache",cache,3,6,2);
+        cache.clear();
+        counts("cleared",cache,3,6,0);
+        Check.equal("cleared bytes",Long.valueOf(0),Long.valueOf(cache.getBytes()));
+
+        TagCache off = new TagCache(0);
+        off.read(a);
+        off.read(a);
+        counts("off",off,0,2,0);
+    }
+
+    // changes to tags handed out, on a miss or a hit, stay with the caller.
+    private static void isolation(File dir)
+        throws IOException
+    {
+        TagCache cache = new TagCache(1024 * 1024);
+        File f = file(dir,"isolated",100);
+        File v1 = Tags.file(dir,"v1",Tags.cat(new byte[][]{ Tags.audio(1024), ReadAsyncTest.v1("one") }));
+        File[] files = new File[]{ f, v1 };
+        for (int i = 0; i < files.length; i++)
+        {
+            Tag first = cache.read(files[i]);
+            String title = first.getTitle();
+            first.setTitle("changed on a miss");
+            Tag second = cache.read(files[i]);
+            Check.equal("miss " + i,title,second.getTitle());
+            second.setTitle("changed on a hit");
+            second.setArtist("someone");
+            Tag third = cache.read(files[i]);
+            Check.equal("hit " + i,title,third.getTitle());
+            Check.equal("artist " + i,first.getArtist(),third.getArtist());
+            Check.that(first != second && second != third,"same tag handed out " + i);
+        }
+        counts("isolation",cache,4,2,2);
+    }
+
+    // a file whose size or modification time changes is read again, as is
+    // one that was invalidated.
+    private static void changes(File dir)
+        throws IOException
+    {
+        TagCache cache = new TagCache(1024 * 1024);
+        File f = file(dir,"changes",100);
+        cache.read(f);
+        long modified = f.lastModified();
+        file(dir,"changes",200);
+        f.setLastModified(modified);
+        cache.read(f);
+        counts("size",cache,0,2,1);
+        f.setLastModified(modified - 10000);
+        cache.read(f);
+        counts("modified",cache,0,3,1);
+        cache.read(f);
+        counts("unchanged",cache,1,3,1);
+        cache.invalidate(f);
+        counts("invalidated",cache,1,3,0);
+        cache.read(f);
+        counts("read again",cache,1,4,1);
+    }
+
+    private static void counts(String what, TagCache cache, long hits, long misses, int size)
+    {
+        Check.equal(what + " hits",Long.valueOf(hits),Long.valueOf(cache.getHits()));
+        Check.equal(what + " misses",Long.valueOf(misses),Long.valueOf(cache.getMisses()));
+        Check.equal(what + " size",Integer.valueOf(size),Integer.valueOf(cache.size()));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Builds tags and files byte by byte, so tests don't depend on the writing
+ * code to produce what the reading code is tested on.
+ */
+class Tags
+{
+    private Tags()
+    {
+        super();
+    }
+
+    /**
+     * a frame with no flags set.
+     * @param version int 2, 3 or 4.
+     * @param id String
+     * @param body byte[]
+     * @return byte[]
+     * @throws IOException
+     */
+    static byte[] frame(int version, String id, byte[] body)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(id.getBytes("ISO-8859-1"));
+        if (version == 2)
+            out.write(ByteUtils.longToByte3(body.length));
+        else
+        {
+            out.write(ByteUtils.longToByte4(version == 4 ? ByteUtils.addZeroBits(body.length) : body.length));
+            out.write(new byte[2]);
+        }
+        out.write(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * a text frame in ISO-8859-1.
+     * @param version int
+     * @param id String
+     * @param value String
+     * @return byte[]
+     * @throws IOException
+     */
+    static byte[] text(int version, String id, String value)
+        throws IOException
+    {
+        return frame(version,id,("\0" + value).getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * a v2.3 frame compressed the way {@link Frame#write} writes one: the
+     * size counts the compressed bytes, which follow the uncompressed size.
+     * @param id String
+     * @param body byte[] uncompressed.
+     * @return byte[]
+     * @throws IOException
+     */
+    static byte[] compressed(String id, byte[] body)
+        throws IOException
+    {
+        byte[] zipped = ZlibCodec.deflate(java.nio.ByteBuffer.wrap(body));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(id.getBytes("ISO-8859-1"));
+        out.write(ByteUtils.longToByte4(zipped.length));
+        out.write(new byte[]{ 0, (byte)0x80 });
+        out.write(ByteUtils.longToByte4(body.length));
+        out.write(zipped);
+        return out.toByteArray();
+    }
+
+    /**
+     * a tag holding frames and padding. Unsynchronized tags (v2.2 and v2.3
+     * only) have their frames and padding unsynchronized as a whole.
+     * @param version int
+     * @param unsync boolean
+     * @param frames byte[] concatenated frames.
+     * @param padding int
+     * @return byte[]
+     * @throws IOException
+     */
+    static byte[] tag(int version, boolean unsync, byte[] frames, int padding)
+        throws IOException
+    {
+        byte[] data = cat(new byte[][]{ frames, new byte[padding] });
+        if (unsync)
+            data = ByteUtils.unsync(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{ 'I', 'D', '3', (byte)version, 0, (byte)(unsync ? 0x80 : 0) });
+        out.write(ByteUtils.longToByte4(ByteUtils.addZeroBits(data.length)));
+        out.write(data);
+        return out.toByteArray();
+    }
+
+    /**
+     * something that looks like audio: it starts with a sync signal and has
+     * no tag header in it.
+     * @param len int
+     * @return byte[]
+     */
+    static byte[] audio(int len)
+    {
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++)
+            b[i] = (byte)(i * 31 + 7);
+        b[0] = (byte)0xff;
+        b[1] = (byte)0xfb;
+        return b;
+    }
+
+    /**
+     * @param parts byte[][]
+     * @return the parts one after another.
+     */
+    static byte[] cat(byte[][] parts)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.length; i++)
+            out.write(parts[i],0,parts[i].length);
+        return out.toByteArray();
+    }
+
+    /**
+     * write a file.
+     * @param dir File
+     * @param name String
+     * @param data byte[]
+     * @return File
+     * @throws IOException
+     */
+    static File file(File dir, String name, byte[] data)
+        throws IOException
+    {
+        File f = new File(dir,name);
+        Files.write(f.toPath(),data);
+        return f;
+    }
+
+    /**
+     * a new temp directory.
+     * @param prefix String
+     * @return File
+     * @throws IOException
+     */
+    static File dir(String prefix)
+        throws IOException
+    {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * delete a file or a directory and everything in it. Symbolic links are
+     * deleted, not followed.
+     * @param f File
+     */
+    static void delete(File f)
+    {
+        File[] kids = Files.isSymbolicLink(f.toPath()) ? null : f.listFiles();
+        for (int i = 0; kids != null && i < kids.length; i++)
+            delete(kids[i]);
+        f.delete();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Checks that {@link UnsyncEncodingOutputStream} and
+ * {@link UnsyncDecodingInputStream} agree with {@link ByteUtils#unsync} and
+ * {@link ByteUtils#sync} however the data is split up: a byte at a time, and
+ * in chunks of every size, so that an ff and the byte after it land in
+ * different writes and reads.
+ */
+public class UnsyncStreamTest
+{
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        List<byte[]> samples = ByteUtilsTest.samples();
+        for (int i = 0; i < samples.size(); i++)
+        {
+            byte[] b = samples.get(i);
+            checkEncoding(b);
+            checkDecoding(b);
+        }
+        System.out.println("UnsyncStreamTest: " + samples.size() + " samples ok.");
+    }
+
+    private static void checkEncoding(byte[] b)
+        throws IOException
+    {
+        byte[] expected = ByteUtils.unsync(b);
+        String what = " of " + Check.hex(b);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        UnsyncEncodingOutputStream out = new UnsyncEncodingOutputStream(bout);
+        for (int i = 0; i < b.length; i++)
+            out.write(b[i]);
+        out.finish();
+        Check.equal("byte at a time encoding" + what,expected,bout.toByteArray());
+        for (int chunk = 1; chunk <= Math.max(1,b.length); chunk++)
+        {
+            bout.reset();
+            out = new UnsyncEncodingOutputStream(bout);
+            for (int off = 0; off < b.length; off += chunk)
+                out.write(b,off,Math.min(chunk,b.length - off));
+            out.close();
+            Check.equal(chunk + " byte chunk encoding" + what,expected,bout.toByteArray());
+        }
+    }
+
+    private static void checkDecoding(byte[] b)
+        throws IOException
+    {
+        byte[] unsynced = ByteUtils.unsync(b);
+        String what = " of " + Check.hex(unsynced);
+        InputStream in = new UnsyncDecodingInputStream(new ByteArrayInputStream(unsynced));
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        for (int c = in.read(); c >= 0; c = in.read())
+            bout.write(c);
+        Check.equal("byte at a time decoding" + what,b,bout.toByteArray());
+        for (int chunk = 1; chunk <= Math.max(1,unsynced.length); chunk++)
+        {
+            // the underlying stream hands out at most chunk bytes per read.
+            in = new UnsyncDecodingInputStream(new Trickle(unsynced,chunk));
+            bout.reset();
+            byte[] buf = new byte[unsynced.length + 1];
+            for (int read = in.read(buf,0,buf.length); read >= 0; read = in.read(buf,0,buf.length))
+            {
+                Check.that(read > 0,"empty read" + what);
+                bout.write(buf,0,read);
+            }
+            Check.equal(chunk + " byte chunk decoding" + what,b,bout.toByteArray());
+        }
+    }
+
+    // a stream that returns no more than a few bytes per read.
+    private static class Trickle
+        extends ByteArrayInputStream
+    {
+        private int chunk = 0;
+
+        private Trickle(byte[] b, int chunk)
+        {
+            super(b);
+            this.chunk = chunk;
+        }
+
+        public synchronized int read(byte[] b, int off, int len)
+        {
+            return super.read(b,off,Math.min(len,chunk));
+        }
+    }
+}
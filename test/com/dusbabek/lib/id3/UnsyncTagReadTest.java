@@ -0,0 +1,104 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads unsynchronized tags whose frame headers contain stuffed bytes (a
+ * size byte of 0xff followed by 0x00) through the filtered stream path, where
+ * frame headers come out of an {@link UnsyncDecodingInputStream} that returns
+ * short reads.
+ */
+public class UnsyncTagReadTest
+{
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        for (int version = 2; version <= 3; version++)
+        {
+            byte[] tag = tag(version);
+            String what = "v2." + version + ": ";
+            Tag all = new Reader().read(new ByteArrayInputStream(tag),tag.length);
+            Check.equal(what + "title",text('t',0x1fe),all.getTitle());
+            Check.equal(what + "artist","artist",all.getArtist());
+            Check.equal(what + "album",text('a',0x2fe),all.getAlbum());
+
+            Tag some = new Reader().read(new ByteArrayInputStream(tag),tag.length,
+                new FrameFilter(new int[]{ FrameType.ARTIST, FrameType.ALBUM }));
+            Check.equal(what + "filtered title","",some.getTitle());
+            Check.equal(what + "filtered artist","artist",some.getArtist());
+            Check.equal(what + "filtered album",text('a',0x2fe),some.getAlbum());
+
+            some = new Reader().read(new ByteArrayInputStream(tag),tag.length,
+                new FrameFilter(new int[]{ FrameType.SONGNAME }));
+            Check.equal(what + "title only",text('t',0x1fe),some.getTitle());
+            Check.equal(what + "title only artist","",some.getArtist());
+        }
+        System.out.println("UnsyncTagReadTest: ok.");
+    }
+
+    // an unsynchronized tag with frames of 0x1ff and 0x2ff bytes, so the size
+    // in their headers ends in ff and is followed by a 00.
+    private static byte[] tag(int version)
+        throws IOException
+    {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frame(frames,version,version == 2 ? "TT2" : "TIT2",text('t',0x1fe));
+        frame(frames,version,version == 2 ? "TP1" : "TPE1","artist");
+        frame(frames,version,version == 2 ? "TAL" : "TALB",text('a',0x2fe));
+        byte[] unsynced = ByteUtils.unsync(frames.toByteArray());
+        Check.that(unsynced.length > frames.size(),"nothing to unsynchronize");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{ 'I', 'D', '3', (byte)version, 0, (byte)0x80 });
+        out.write(ByteUtils.longToByte4(ByteUtils.addZeroBits(unsynced.length + 64)));
+        out.write(unsynced);
+        out.write(new byte[64]);
+        return out.toByteArray();
+    }
+
+    private static void frame(ByteArrayOutputStream out, int version, String id, String value)
+        throws IOException
+    {
+        byte[] body = ("\0" + value).getBytes("ISO-8859-1");
+        out.write(id.getBytes("ISO-8859-1"));
+        byte[] size = ByteUtils.longToByte4(body.length);
+        if (version == 2)
+            out.write(size,1,3);
+        else
+        {
+            out.write(size);
+            out.write(new byte[2]);
+        }
+        out.write(body);
+    }
+
+    private static String text(char c, int len)
+    {
+        char[] s = new char[len];
+        java.util.Arrays.fill(s,c);
+        return new String(s);
+    }
+}
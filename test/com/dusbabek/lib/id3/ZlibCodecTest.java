@@ -0,0 +1,178 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compresses and expands data with the pooled codec, from several threads
+ * at once, and reads compressed frames on every read path, with big
+ * payloads spilled to temp files or not.
+ */
+public class ZlibCodecTest
+{
+    /**
+     * @param args String[]
+     * @throws Exception
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        final List<byte[]> samples = ByteUtilsTest.samples();
+        samples.add(new byte[300000]);
+        roundTrips(samples);
+        Thread[] threads = new Thread[8];
+        final Throwable[] failed = new Throwable[1];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        roundTrips(samples);
+                    }
+                    catch (Throwable ex)
+                    {
+                        failed[0] = ex;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+        if (failed[0] != null)
+            throw new AssertionError(failed[0]);
+        corrupt();
+
+        File dir = Tags.dir("zlib");
+        int spill = FrameFactory.getSpillThreshold();
+        int map = Reader.getMapThreshold();
+        try
+        {
+            frames(dir,false);
+            FrameFactory.setSpillThreshold(1024);
+            frames(dir,true);
+        }
+        finally
+        {
+            FrameFactory.setSpillThreshold(spill);
+            Reader.setMapThreshold(map);
+            Tags.delete(dir);
+        }
+        System.out.println("ZlibCodecTest: " + samples.size() + " samples ok.");
+    }
+
+    private static void roundTrips(List<byte[]> samples)
+        throws IOException
+    {
+        for (int i = 0; i < samples.size(); i++)
+        {
+            byte[] b = samples.get(i);
+            byte[] zipped = ZlibCodec.deflate(ByteBuffer.wrap(b));
+            ByteBuffer in = ByteBuffer.wrap(zipped);
+            Check.equal("round trip " + i,b,ZlibCodec.inflate(in,b.length));
+            Check.that(!in.hasRemaining(),"input left over " + i);
+        }
+    }
+
+    // sizes that don't match and data that isn't zlib are corrupt frames.
+    private static void corrupt()
+    {
+        byte[] b = "some text that is compressed".getBytes();
+        byte[] zipped = ZlibCodec.deflate(ByteBuffer.wrap(b));
+        long[] sizes = new long[]{ b.length - 1, b.length + 1, -1 };
+        for (int i = 0; i < sizes.length; i++)
+            mustFail("size " + sizes[i],zipped,sizes[i]);
+        mustFail("truncated",Arrays.copyOf(zipped,zipped.length / 2),b.length);
+        mustFail("not zlib",b,b.length);
+    }
+
+    private static void mustFail(String what, byte[] zipped, long size)
+    {
+        try
+        {
+            ZlibCodec.inflate(ByteBuffer.wrap(zipped),size);
+        }
+        catch (CorruptFrameException ex)
+        {
+            return;
+        }
+        catch (IOException ex)
+        {
+            throw new AssertionError(what + ": " + ex);
+        }
+        throw new AssertionError(what + ": expanded");
+    }
+
+    // a tag with a compressed title and a big compressed album, next to an
+    // uncompressed frame big enough to spill.
+    private static void frames(File dir, boolean spilled)
+        throws IOException
+    {
+        String what = spilled ? "spilled: " : "";
+        char[] a = new char[100000];
+        Arrays.fill(a,'a');
+        String album = new String(a);
+        byte[] frames = Tags.cat(new byte[][]{
+            Tags.compressed("TIT2",("\0compressed title").getBytes("ISO-8859-1")),
+            Tags.frame(3,"PRIV",Tags.audio(50000)),
+            Tags.compressed("TALB",("\0" + album).getBytes("ISO-8859-1")),
+            Tags.text(3,"TPE1","artist") });
+        for (int u = 0; u < 2; u++)
+        {
+            boolean unsync = u == 1;
+            String w = what + (unsync ? "unsynchronized " : "");
+            byte[] whole = Tags.cat(new byte[][]{ Tags.tag(3,unsync,frames,64), Tags.audio(1024) });
+            File f = Tags.file(dir,"z" + spilled + unsync + ".mp3",whole);
+            Reader.setMapThreshold(Integer.MAX_VALUE);
+            Tag_v2 heap = (Tag_v2)new Reader().read(f);
+            Reader.setMapThreshold(0);
+            Tag_v2 mapped = (Tag_v2)new Reader().read(f);
+            Tag_v2 stream = (Tag_v2)new Reader().read(new ByteArrayInputStream(whole),whole.length);
+            Tag_v2 filtered = (Tag_v2)new Reader().read(new ByteArrayInputStream(whole),whole.length,
+                new FrameFilter(new int[]{ FrameType.SONGNAME, FrameType.ALBUM }));
+            Tag_v2[] tags = new Tag_v2[]{ heap, mapped, stream, filtered };
+            for (int i = 0; i < tags.length; i++)
+            {
+                Check.equal(w + "title " + i,"compressed title",tags[i].getTitle());
+                Check.equal(w + "album " + i,album,tags[i].getAlbum());
+                Check.equal(w + "artist " + i,i == 3 ? "" : "artist",tags[i].getArtist());
+            }
+            Check.equal(w + "stream frames",heap.encodeFrames(),stream.encodeFrames());
+
+            // written back, the frames stay compressed.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            filtered.write(out);
+            byte[] written = out.toByteArray();
+            Check.that(written.length < album.length() / 10,w + "written uncompressed: " + written.length);
+            Tag again = new Reader().read(new ByteArrayInputStream(written),written.length);
+            Check.equal(w + "title again","compressed title",again.getTitle());
+            Check.equal(w + "album again",album,again.getAlbum());
+        }
+    }
+}
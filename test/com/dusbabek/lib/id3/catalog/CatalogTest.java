@@ -0,0 +1,144 @@
+/*
+(c) Copyright 2004, 2005 Gary Dusbabek gdusbabek@gmail.com
+
+ALL RIGHTS RESERVED.
+
+By using this software, you acknowlege and agree that:
+
+1. THIS PACKAGE IS PROVIDED "AS IS" AND WITHOUT ANY EXPRESS OR IMPLIED WARRANTIES,
+INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTIES OF MERCHANTIBILITY AND
+FITNESS FOR A PARTICULAR PURPOSE.
+
+2. This product may be freely copied and distributed in source or binary form
+given that the license (this file) and any copyright declarations remain in
+tact.
+
+The End
+*/
+
+package com.dusbabek.lib.id3.catalog;
+
+import com.dusbabek.lib.id3.Check;
+import com.dusbabek.lib.id3.Tag;
+import com.dusbabek.lib.id3.Tag_v1;
+import com.dusbabek.lib.id3.Tag_v2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes a catalog of a few tags, maps it back in, and checks that every
+ * field, the dictionary and the indexes come back as they went in.
+ */
+public class CatalogTest
+{
+    /**
+     * @param args String[]
+     * @throws IOException
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        Tag[] tags = new Tag[]{
+            tag("So What","Miles Davis","Kind of Blue","1959","1","Jazz"),
+            tag("Hyperballad","Bjork","Post","1995-06-13","8","(13)"),
+            tag("Blue in Green","Miles Davis","Kind of Blue","1959","3","Jazz"),
+            tag("","","","","",""),
+            v1("Freddie Freeloader","Miles Davis",(byte)8)};
+        CatalogWriter w = new CatalogWriter();
+        for (int i = 0; i < tags.length; i++)
+            w.add(path(i),tags[i]);
+        Check.equal("writer size",Integer.valueOf(tags.length),Integer.valueOf(w.size()));
+
+        File f = File.createTempFile("catalog",".cat");
+        f.deleteOnExit();
+        w.write(f);
+        Catalog c = Catalog.open(f);
+        Check.equal("size",Integer.valueOf(tags.length),Integer.valueOf(c.size()));
+        for (int i = 0; i < tags.length; i++)
+        {
+            Check.equal("path " + i,path(i),c.get(i,Catalog.PATH));
+            Check.equal("title " + i,trim(tags[i].getTitle()),c.get(i,Catalog.TITLE));
+            Check.equal("artist " + i,trim(tags[i].getArtist()),c.get(i,Catalog.ARTIST));
+            Check.equal("album " + i,trim(tags[i].getAlbum()),c.get(i,Catalog.ALBUM));
+            Check.equal("year " + i,trim(tags[i].getYear()),c.get(i,Catalog.YEAR));
+            Check.equal("track " + i,trim(tags[i].getTrack()),c.get(i,Catalog.TRACK));
+            Check.equal("genre " + i,trim(tags[i].getGenre()),c.get(i,Catalog.GENRE));
+            Check.equal("version " + i,tags[i].getVersion(),c.getVersion(i));
+            Check.equal("genre code " + i,Integer.valueOf(CatalogWriter.genreCode(trim(tags[i].getGenre()))),Integer.valueOf(c.getGenreCode(i)));
+            Check.equal("tag length " + i,Long.valueOf(tags[i].originalTagLength()),Long.valueOf(c.getTagLength(i)));
+        }
+        Check.equal("genre code of Jazz",Integer.valueOf(8),Integer.valueOf(c.getGenreCode(0)));
+        Check.equal("genre code of (13)",Integer.valueOf(13),Integer.valueOf(c.getGenreCode(1)));
+
+        // the dictionary is sorted and holds each value once.
+        for (int i = 1; i < c.getStringCount(); i++)
+            Check.that(c.getString(i - 1).compareTo(c.getString(i)) < 0,"dictionary order at " + i);
+        Check.equal("findString",c.getString(c.findString("Kind of Blue")),"Kind of Blue");
+        Check.equal("findString of a missing value",Integer.valueOf(-1),Integer.valueOf(c.findString("Nobody")));
+        Check.that(Arrays.equals(new int[]{ 0, 2, 4 },c.find(Catalog.ARTIST,"Miles Davis")),"find artist");
+        Check.that(Arrays.equals(new int[]{ 1 },c.find(Catalog.ARTIST,"Bjork")),"find artist");
+        Check.that(Arrays.equals(new int[]{ 3 },c.find(Catalog.PATH,path(3))),"find non-ascii path");
+        Check.equal("find missing",Integer.valueOf(0),Integer.valueOf(c.find(Catalog.ARTIST,"Nobody").length));
+
+        CatalogIndex index = new CatalogIndex(c);
+        Check.that(Arrays.equals(new int[]{ 0, 2, 4 },CatalogIndex.toFiles(index.artist("Miles Davis"))),"index artist");
+        Check.that(Arrays.equals(new int[]{ 0, 2 },CatalogIndex.toFiles(index.album("Kind of Blue"))),"index album");
+        Check.that(Arrays.equals(new int[]{ 0, 2, 4 },CatalogIndex.toFiles(index.genre("Jazz"))),"index genre");
+        Check.that(Arrays.equals(new int[]{ 1 },CatalogIndex.toFiles(index.years(1990,1999))),"index years");
+        Query q = Query.artist("Miles Davis").and(Query.album("Kind of Blue"));
+        Check.that(Arrays.equals(new int[]{ 0, 2 },CatalogIndex.toFiles(q.evaluate(index))),"query");
+        q = Query.album("Post").or(Query.years(1959,1959));
+        Check.that(Arrays.equals(new int[]{ 0, 1, 2, 4 },CatalogIndex.toFiles(q.evaluate(index))),"or query");
+        Check.equal("all",Integer.valueOf(tags.length),Integer.valueOf(index.all().cardinality()));
+        System.out.println("CatalogTest: ok.");
+    }
+
+    // paths go into the catalog as given, so they can show that strings
+    // aren't limited to ascii.
+    private static String path(int i)
+    {
+        return "/music/M\u00f6tley \u00c7r\u00fce/" + i + ".mp3";
+    }
+
+    private static Tag tag(String title, String artist, String album, String year, String track, String genre)
+        throws IOException
+    {
+        Tag t = new Tag_v2();
+        if (title.length() > 0)
+        {
+            t.setTitle(title);
+            t.setArtist(artist);
+            t.setAlbum(album);
+            t.setYear(year);
+            t.setTrack(track);
+            t.setGenre(genre);
+        }
+        return t;
+    }
+
+    private static Tag v1(String title, String artist, byte genre)
+        throws IOException
+    {
+        byte[] b = new byte[Tag_v1.TAG_LENGTH];
+        b[0] = 'T';
+        b[1] = 'A';
+        b[2] = 'G';
+        System.arraycopy(title.getBytes("ISO-8859-1"),0,b,3,title.length());
+        System.arraycopy(artist.getBytes("ISO-8859-1"),0,b,33,artist.length());
+        System.arraycopy("1959".getBytes("ISO-8859-1"),0,b,93,4);
+        b[126] = 4;
+        b[127] = genre;
+        return new Tag_v1(b);
+    }
+
+    // 1.x fields are padded out with nulls or spaces.
+    private static String trim(String s)
+    {
+        int end = s.length();
+        while (end > 0 && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == 0))
+            end--;
+        return s.substring(0,end);
+    }
+}